@@ -0,0 +1,145 @@
+package org.kitteh.vanish;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.entity.Entity;
+
+/**
+ * Tracks the bats spawned by bat effects, grouped into a flock per effect so
+ * a flock can be removed without searching the world for it.
+ * Bats are held weakly, so a bat unloaded with its chunk is not kept alive,
+ * and is dropped by the next sweep.
+ * Main thread only.
+ */
+final class BatFlocks {
+    /**
+     * The bats spawned by one effect
+     */
+    static final class Flock {
+        private final List<Bat> bats = new ArrayList<Bat>();
+    }
+
+    private static final class Bat extends WeakReference<Entity> {
+        private final UUID id;
+
+        private Bat(Entity entity) {
+            super(entity);
+            this.id = entity.getUniqueId();
+        }
+    }
+
+    private final List<Flock> flocks = new ArrayList<Flock>();
+    private final Set<UUID> ids = new HashSet<UUID>();
+    private final Set<UUID> idsView = Collections.unmodifiableSet(this.ids);
+
+    /**
+     * Adds a bat to a flock
+     *
+     * @param flock flock the bat belongs to
+     * @param bat the spawned bat
+     */
+    void add(Flock flock, Entity bat) {
+        flock.bats.add(new Bat(bat));
+        this.ids.add(bat.getUniqueId());
+    }
+
+    /**
+     * Removes every flock
+     *
+     * @return bats still in the world, for the caller to remove
+     */
+    List<Entity> clear() {
+        final List<Entity> alive = new ArrayList<Entity>();
+        for (final Flock flock : this.flocks) {
+            BatFlocks.collect(flock, alive);
+        }
+        this.flocks.clear();
+        this.ids.clear();
+        return alive;
+    }
+
+    /**
+     * Starts a new flock
+     *
+     * @return the flock
+     */
+    Flock create() {
+        final Flock flock = new Flock();
+        this.flocks.add(flock);
+        return flock;
+    }
+
+    /**
+     * Gets the unique IDs of all tracked bats
+     *
+     * @return unmodifiable view of the IDs
+     */
+    Set<UUID> getIds() {
+        return this.idsView;
+    }
+
+    /**
+     * Removes a flock
+     *
+     * @param flock flock to remove
+     * @return bats of the flock still in the world, for the caller to remove
+     */
+    List<Entity> remove(Flock flock) {
+        final List<Entity> alive = new ArrayList<Entity>(flock.bats.size());
+        this.flocks.remove(flock);
+        for (final Bat bat : flock.bats) {
+            this.ids.remove(bat.id);
+        }
+        BatFlocks.collect(flock, alive);
+        return alive;
+    }
+
+    /**
+     * Gets the number of tracked bats
+     *
+     * @return bat count
+     */
+    int size() {
+        return this.ids.size();
+    }
+
+    /**
+     * Forgets bats that are no longer in the world, such as those unloaded
+     * with their chunk
+     *
+     * @return number of bats forgotten
+     */
+    int sweep() {
+        int swept = 0;
+        for (final Flock flock : this.flocks) {
+            final Iterator<Bat> bats = flock.bats.iterator();
+            while (bats.hasNext()) {
+                final Bat bat = bats.next();
+                final Entity entity = bat.get();
+                if ((entity == null) || !entity.isValid()) {
+                    bats.remove();
+                    this.ids.remove(bat.id);
+                    swept++;
+                }
+            }
+        }
+        return swept;
+    }
+
+    private static void collect(Flock flock, List<Entity> alive) {
+        for (final Bat bat : flock.bats) {
+            final Entity entity = bat.get();
+            if ((entity != null) && entity.isValid()) {
+                alive.add(entity);
+            }
+        }
+        flock.bats.clear();
+    }
+}
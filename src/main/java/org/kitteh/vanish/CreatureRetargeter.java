@@ -0,0 +1,130 @@
+package org.kitteh.vanish;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Queue;
+
+import org.bukkit.World;
+import org.bukkit.entity.Creature;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+
+/**
+ * Makes creatures near a vanished player stop targeting them.
+ * Walks the loaded chunks around the player nearest first, under a per-tick
+ * time budget, instead of collecting every nearby entity in one go.
+ * Main thread only.
+ */
+final class CreatureRetargeter implements Runnable {
+    private static final class Job {
+        private final Player player;
+        private final World world;
+        private final int chunkX;
+        private final int chunkZ;
+        private int next = 0;
+
+        private Job(Player player) {
+            this.player = player;
+            this.world = player.getWorld();
+            this.chunkX = player.getLocation().getBlockX() >> 4;
+            this.chunkZ = player.getLocation().getBlockZ() >> 4;
+        }
+    }
+
+    /**
+     * Chunks scanned in each direction, covering the old 100 block range
+     */
+    static final int RADIUS = 7;
+
+    /**
+     * Most time spent scanning per tick, at least one chunk always is
+     */
+    private static final long NANOS_PER_TICK = 1000000L;
+
+    /**
+     * Chunk offsets around the player as x, z pairs, nearest first
+     */
+    private static final int[] OFFSETS = CreatureRetargeter.offsets();
+
+    private final VanishManager manager;
+    private final Queue<Job> jobs = new ArrayDeque<Job>();
+
+    CreatureRetargeter(VanishManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Queues clearing creature targets around a player
+     *
+     * @param player the vanished player
+     */
+    void add(Player player) {
+        this.jobs.add(new Job(player));
+    }
+
+    /**
+     * Drops all queued work
+     */
+    void clear() {
+        this.jobs.clear();
+    }
+
+    @Override
+    public void run() {
+        if (this.jobs.isEmpty()) {
+            return;
+        }
+        final long deadline = System.nanoTime() + CreatureRetargeter.NANOS_PER_TICK;
+        while (!this.jobs.isEmpty()) {
+            final Job job = this.jobs.peek();
+            if ((job.next >= CreatureRetargeter.OFFSETS.length) || !job.player.isOnline() || !this.manager.isVanished(job.player)) {
+                this.jobs.poll();
+                continue;
+            }
+            final int x = job.chunkX + CreatureRetargeter.OFFSETS[job.next];
+            final int z = job.chunkZ + CreatureRetargeter.OFFSETS[job.next + 1];
+            job.next += 2;
+            if (job.world.isChunkLoaded(x, z)) {
+                for (final Entity entity : job.world.getChunkAt(x, z).getEntities()) {
+                    if (entity instanceof Creature) {
+                        final LivingEntity target = ((Creature) entity).getTarget();
+                        if ((target != null) && target.equals(job.player)) {
+                            ((Creature) entity).setTarget(null);
+                        }
+                    }
+                }
+            }
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+        }
+    }
+
+    static int[] offsets() {
+        final int side = (CreatureRetargeter.RADIUS * 2) + 1;
+        final Integer[] order = new Integer[side * side];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return CreatureRetargeter.distance(o1, side) - CreatureRetargeter.distance(o2, side);
+            }
+        });
+        final int[] offsets = new int[order.length * 2];
+        for (int i = 0; i < order.length; i++) {
+            offsets[i * 2] = (order[i] % side) - CreatureRetargeter.RADIUS;
+            offsets[(i * 2) + 1] = (order[i] / side) - CreatureRetargeter.RADIUS;
+        }
+        return offsets;
+    }
+
+    private static int distance(int index, int side) {
+        final int dx = (index % side) - CreatureRetargeter.RADIUS;
+        final int dz = (index / side) - CreatureRetargeter.RADIUS;
+        return (dx * dx) + (dz * dz);
+    }
+}
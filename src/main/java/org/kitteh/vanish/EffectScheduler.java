@@ -0,0 +1,108 @@
+package org.kitteh.vanish;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Spreads the operations of vanish effects, such as single lightning strikes
+ * or particles, over several ticks. A global per-tick budget is shared by
+ * all running effects. Operations that don't fit the budget are dropped,
+ * thinning the effect rather than delaying it.
+ * Main thread only.
+ */
+final class EffectScheduler implements Runnable {
+    /**
+     * One operation of an effect
+     */
+    interface Step {
+        /**
+         * Performs an operation
+         *
+         * @param index index of the operation, from 0
+         */
+        void run(int index);
+    }
+
+    private static final class Job {
+        private final Step step;
+        private final int operations;
+        private final int perTick;
+        private int next = 0;
+
+        private Job(Step step, int operations, int perTick) {
+            this.step = step;
+            this.operations = operations;
+            this.perTick = perTick;
+        }
+    }
+
+    private final List<Job> jobs = new ArrayList<Job>();
+    private long dropped = 0;
+
+    /**
+     * Queues an effect
+     *
+     * @param operations number of operations in the effect
+     * @param ticks ticks to spread the operations over
+     * @param step performs each operation
+     */
+    void add(int operations, int ticks, Step step) {
+        if (operations > 0) {
+            this.jobs.add(new Job(step, operations, ((operations + Math.max(1, ticks)) - 1) / Math.max(1, ticks)));
+        }
+    }
+
+    /**
+     * Drops all queued effects
+     */
+    void clear() {
+        this.jobs.clear();
+    }
+
+    /**
+     * Gets the number of operations dropped for exceeding the budget
+     *
+     * @return dropped operation count
+     */
+    long getDropped() {
+        return this.dropped;
+    }
+
+    @Override
+    public void run() {
+        this.tick(Settings.getEffectBudget());
+    }
+
+    /**
+     * Gets the number of effects still running
+     *
+     * @return running effect count
+     */
+    int size() {
+        return this.jobs.size();
+    }
+
+    /**
+     * Runs one tick's share of every effect
+     *
+     * @param budget most operations to run this tick
+     */
+    void tick(int budget) {
+        final Iterator<Job> iterator = this.jobs.iterator();
+        while (iterator.hasNext()) {
+            final Job job = iterator.next();
+            final int due = Math.min(job.perTick, job.operations - job.next);
+            final int allowed = Math.min(due, budget);
+            for (int i = 0; i < allowed; i++) {
+                job.step.run(job.next++);
+            }
+            budget -= allowed;
+            this.dropped += due - allowed;
+            job.next += due - allowed;
+            if (job.next >= job.operations) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.kitteh.vanish;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Vanish toggles made during a tick, settled together on a later tick.
+ * A player toggled back to how they started drops out when settled, so
+ * nothing downstream hears about them.
+ * Main thread only.
+ *
+ * @param <T> player type
+ */
+final class PendingToggles<T> {
+    /**
+     * Everything toggled on one player since they were last settled
+     */
+    static final class Toggle {
+        private final boolean wasVanished;
+        private boolean vanished;
+        private boolean effects = false;
+        private boolean announce = false;
+
+        private Toggle(boolean wasVanished) {
+            this.wasVanished = wasVanished;
+        }
+
+        /**
+         * Gets if any toggle asked to be announced
+         *
+         * @return true to message and run hooks
+         */
+        boolean isAnnounced() {
+            return this.announce;
+        }
+
+        /**
+         * Gets if any toggle asked for effects
+         *
+         * @return true to trigger effects
+         */
+        boolean hasEffects() {
+            return this.effects;
+        }
+
+        /**
+         * Gets the player's status after the last toggle
+         *
+         * @return true if vanished
+         */
+        boolean isVanished() {
+            return this.vanished;
+        }
+    }
+
+    private final Map<T, Toggle> pending = new LinkedHashMap<T, Toggle>();
+
+    /**
+     * Records a toggle
+     *
+     * @param player toggled player
+     * @param vanished the player's status after this toggle
+     * @param effects if true, trigger effects
+     * @param announce if true, message and run hooks
+     */
+    void add(T player, boolean vanished, boolean effects, boolean announce) {
+        Toggle toggle = this.pending.get(player);
+        if (toggle == null) {
+            toggle = new Toggle(!vanished);
+            this.pending.put(player, toggle);
+        }
+        toggle.vanished = vanished;
+        toggle.effects |= effects;
+        toggle.announce |= announce;
+    }
+
+    /**
+     * Forgets everything pending
+     */
+    void clear() {
+        this.pending.clear();
+    }
+
+    /**
+     * Gets if a player has a toggle pending
+     *
+     * @param player player to query
+     * @return true if pending
+     */
+    boolean contains(T player) {
+        return this.pending.containsKey(player);
+    }
+
+    /**
+     * Gets if nothing is pending
+     *
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return this.pending.isEmpty();
+    }
+
+    /**
+     * Forgets a player's pending toggles
+     *
+     * @param player player to forget
+     */
+    void remove(T player) {
+        this.pending.remove(player);
+    }
+
+    /**
+     * Settles every pending player
+     *
+     * @return toggles of players whose status changed, in toggle order
+     */
+    Map<T, Toggle> settle() {
+        final Map<T, Toggle> changed = new LinkedHashMap<T, Toggle>();
+        for (final Map.Entry<T, Toggle> entry : this.pending.entrySet()) {
+            if (entry.getValue().vanished != entry.getValue().wasVanished) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.pending.clear();
+        return changed;
+    }
+
+    /**
+     * Settles some pending players, leaving the rest pending
+     *
+     * @param players players to settle
+     * @return toggles of those players whose status changed, in toggle
+     *         order
+     */
+    Map<T, Toggle> settle(Collection<T> players) {
+        return this.settle(players, true);
+    }
+
+    /**
+     * Settles every pending player except some, leaving those pending
+     *
+     * @param players players to leave pending
+     * @return toggles of the other players whose status changed, in toggle
+     *         order
+     */
+    Map<T, Toggle> settleExcept(Collection<T> players) {
+        return this.settle(players, false);
+    }
+
+    private Map<T, Toggle> settle(Collection<T> players, boolean listed) {
+        final Map<T, Toggle> changed = new LinkedHashMap<T, Toggle>();
+        final Iterator<Map.Entry<T, Toggle>> iterator = this.pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<T, Toggle> entry = iterator.next();
+            if (players.contains(entry.getKey()) == listed) {
+                iterator.remove();
+                if (entry.getValue().vanished != entry.getValue().wasVanished) {
+                    changed.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,146 @@
+package org.kitteh.vanish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sorted set of lowercase player names marked to join vanished.
+ * Held as an immutable sorted array, replaced on every change, so the async
+ * pre-login thread can binary search it without locking.
+ * Keyed by name, as pre-login only knows the name.
+ */
+final class PreVanishIndex {
+    private static final int MAGIC = 0x564e5056;
+
+    private final File file;
+    private volatile String[] names = new String[0];
+
+    PreVanishIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Adds a name
+     *
+     * @param name player name
+     * @return false if already present
+     */
+    synchronized boolean add(String name) {
+        name = name.toLowerCase();
+        final String[] current = this.names;
+        final int index = Arrays.binarySearch(current, name);
+        if (index >= 0) {
+            return false;
+        }
+        final int insert = -(index + 1);
+        final String[] updated = new String[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, insert);
+        updated[insert] = name;
+        System.arraycopy(current, insert, updated, insert + 1, current.length - insert);
+        this.names = updated;
+        return true;
+    }
+
+    /**
+     * Gets if a name is present
+     * Safe to call from any thread.
+     *
+     * @param name player name
+     * @return true if present
+     */
+    boolean contains(String name) {
+        return Arrays.binarySearch(this.names, name.toLowerCase()) >= 0;
+    }
+
+    /**
+     * Gets all names, sorted
+     *
+     * @return copy of the names
+     */
+    String[] getNames() {
+        return this.names.clone();
+    }
+
+    /**
+     * Reads the index from disk
+     *
+     * @throws IOException if the file could not be read
+     */
+    synchronized void load() throws IOException {
+        if (!this.file.exists()) {
+            return;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+        try {
+            if (in.readInt() != PreVanishIndex.MAGIC) {
+                throw new IOException("Unrecognized " + this.file.getName());
+            }
+            final String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF().toLowerCase();
+            }
+            Arrays.sort(names);
+            this.names = names;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Removes a name
+     *
+     * @param name player name
+     * @return false if not present
+     */
+    synchronized boolean remove(String name) {
+        final String[] current = this.names;
+        final int index = Arrays.binarySearch(current, name.toLowerCase());
+        if (index < 0) {
+            return false;
+        }
+        final String[] updated = new String[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        this.names = updated;
+        return true;
+    }
+
+    /**
+     * Writes the current index to disk
+     * Does not block changes while writing.
+     *
+     * @throws IOException if the file could not be written
+     */
+    void save() throws IOException {
+        synchronized (this.file) {
+            final String[] names = this.names;
+            this.file.getParentFile().mkdirs();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+            try {
+                out.writeInt(PreVanishIndex.MAGIC);
+                out.writeInt(names.length);
+                for (final String name : names) {
+                    out.writeUTF(name);
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of names
+     *
+     * @return name count
+     */
+    int size() {
+        return this.names.length;
+    }
+}
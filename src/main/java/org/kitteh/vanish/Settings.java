@@ -10,8 +10,18 @@ public final class Settings {
     private static boolean autoFakeJoinSilent;
     private static boolean worldChangeCheck;
     private static int lightningEffectCount;
+    private static int effectBudget;
+    private static int effectSpread;
+    private static boolean packetBats;
+    private static int visibilityOperationBudget;
+    private static long visibilityTimeBudget;
+    private static boolean persistVanished;
+    private static double toggleRate;
+    private static int toggleBurst;
+    private static double statusRate;
+    private static int statusBurst;
 
-    private static final int confVersion = 5; // Tracking config version
+    private static final int confVersion = 10; // Tracking config version
 
     public static boolean getAutoFakeJoinSilent() {
         return Settings.autoFakeJoinSilent;
@@ -21,6 +31,34 @@ public final class Settings {
         return Settings.enablePermTest;
     }
 
+    /**
+     * Gets the most effect operations run per tick across all players
+     *
+     * @return operations per tick
+     */
+    public static int getEffectBudget() {
+        return Settings.effectBudget;
+    }
+
+    /**
+     * Gets how many ticks each vanish effect is spread over
+     *
+     * @return ticks per effect
+     */
+    public static int getEffectSpread() {
+        return Settings.effectSpread;
+    }
+
+    /**
+     * Gets if bat effects should be faked with packets when ProtocolLib is
+     * available, instead of spawning real bats
+     *
+     * @return true to use packet bats
+     */
+    public static boolean getPacketBats() {
+        return Settings.packetBats;
+    }
+
     public static String getFakeJoin() {
         return Settings.fakeJoin;
     }
@@ -33,6 +71,69 @@ public final class Settings {
         return Settings.lightningEffectCount;
     }
 
+    /**
+     * Gets if vanished players stay vanished across reloads and restarts
+     *
+     * @return true if vanish state is persisted
+     */
+    public static boolean getPersistVanished() {
+        return Settings.persistVanished;
+    }
+
+    /**
+     * Gets the most vanishStatus channel checks a player may burst
+     *
+     * @return burst size
+     */
+    public static int getStatusBurst() {
+        return Settings.statusBurst;
+    }
+
+    /**
+     * Gets how many vanishStatus channel checks a player regains per second
+     *
+     * @return checks per second, 0 for no limit
+     */
+    public static double getStatusRate() {
+        return Settings.statusRate;
+    }
+
+    /**
+     * Gets the most toggle commands a player may burst
+     *
+     * @return burst size
+     */
+    public static int getToggleBurst() {
+        return Settings.toggleBurst;
+    }
+
+    /**
+     * Gets how many toggle commands a player regains per second
+     *
+     * @return toggles per second, 0 for no limit
+     */
+    public static double getToggleRate() {
+        return Settings.toggleRate;
+    }
+
+    /**
+     * Gets the maximum hide/show operations applied per tick
+     *
+     * @return operations per tick
+     */
+    public static int getVisibilityOperationBudget() {
+        return Settings.visibilityOperationBudget;
+    }
+
+    /**
+     * Gets the maximum time spent applying hide/show operations per tick
+     *
+     * @return nanoseconds per tick
+     */
+    public static long getVisibilityTimeBudget() {
+        return Settings.visibilityTimeBudget;
+    }
+
     public static boolean getWorldChangeCheck() {
         return Settings.worldChangeCheck;
     }
@@ -64,6 +165,26 @@ public final class Settings {
             if ((ver <= 4)) {
                 config.set("colornametags", true);
             }
+            if ((ver <= 5)) {
+                config.set("visibility.budget.operations", 250);
+                config.set("visibility.budget.microseconds", 2000);
+            }
+            if ((ver <= 6)) {
+                config.set("persistence.vanished", true);
+            }
+            if ((ver <= 7)) {
+                config.set("ratelimit.toggles.persecond", 2.0);
+                config.set("ratelimit.toggles.burst", 5);
+                config.set("ratelimit.statuschannel.persecond", 1.0);
+                config.set("ratelimit.statuschannel.burst", 3);
+            }
+            if ((ver <= 8)) {
+                config.set("effects.spread.ticks", 10);
+                config.set("effects.budget.operations", 40);
+            }
+            if ((ver <= 9)) {
+                config.set("effects.bats.packet", false);
+            }
             config.set("configVersionDoNotTouch.SeriouslyThisWillEraseYourConfig", Settings.confVersion);
             plugin.saveConfig();
         }
@@ -76,6 +197,16 @@ public final class Settings {
         if (Settings.lightningEffectCount < 1) {
             Settings.lightningEffectCount = 1;
         }
+        Settings.effectSpread = Math.max(1, config.getInt("effects.spread.ticks", 10));
+        Settings.effectBudget = Math.max(1, config.getInt("effects.budget.operations", 40));
+        Settings.packetBats = config.getBoolean("effects.bats.packet", false);
+        Settings.visibilityOperationBudget = Math.max(1, config.getInt("visibility.budget.operations", 250));
+        Settings.visibilityTimeBudget = Math.max(1, config.getInt("visibility.budget.microseconds", 2000)) * 1000L;
+        Settings.persistVanished = config.getBoolean("persistence.vanished", true);
+        Settings.toggleRate = config.getDouble("ratelimit.toggles.persecond", 2.0);
+        Settings.toggleBurst = Math.max(1, config.getInt("ratelimit.toggles.burst", 5));
+        Settings.statusRate = config.getDouble("ratelimit.statuschannel.persecond", 1.0);
+        Settings.statusBurst = Math.max(1, config.getInt("ratelimit.statuschannel.burst", 3));
         if (config.getBoolean("debug", false)) {
             Debuggle.itsGoTime(plugin);
         } else {
@@ -0,0 +1,35 @@
+package org.kitteh.vanish;
+
+/**
+ * Rate limiter that refills continuously up to a burst size.
+ * Starts full. Not thread safe, main thread only.
+ */
+final class TokenBucket {
+    private double tokens = -1;
+    private long last;
+
+    /**
+     * Takes a token if one is available
+     *
+     * @param perSecond tokens regained per second, 0 or less for no limit
+     * @param burst most tokens held at once
+     * @param now current time in nanoseconds
+     * @return true if a token was taken
+     */
+    boolean tryTake(double perSecond, int burst, long now) {
+        if (perSecond <= 0) {
+            return true;
+        }
+        if (this.tokens < 0) {
+            this.tokens = burst;
+        } else {
+            this.tokens = Math.min(burst, this.tokens + (((now - this.last) * perSecond) / 1000000000D));
+        }
+        this.last = now;
+        if (this.tokens < 1) {
+            return false;
+        }
+        this.tokens--;
+        return true;
+    }
+}
@@ -1,10 +1,5 @@
 package org.kitteh.vanish;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 import org.kitteh.vanish.hooks.HookManager.HookType;
@@ -20,31 +15,62 @@ import org.kitteh.vanish.metrics.MetricsOverlord;
  * particularly stupid.
  */
 public final class VanishAnnounceManipulator {
-    private final List<String> delayedAnnouncePlayerList;
     private final VanishPlugin plugin;
-    private final Map<String, Boolean> playerOnlineStatus;
 
     VanishAnnounceManipulator(VanishPlugin plugin) {
         this.plugin = plugin;
-        this.playerOnlineStatus = new HashMap<String, Boolean>();
-        this.delayedAnnouncePlayerList = new ArrayList<String>();
     }
 
-    public void addToDelayedAnnounce(String player) {
-        this.playerOnlineStatus.put(player, false);
+    public void addToDelayedAnnounce(Player player) {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        if (state == null) {
+            return;
+        }
+        state.setFakeOnline(false);
         if (!Settings.getAutoFakeJoinSilent()) {
             return;
         }
-        this.delayedAnnouncePlayerList.add(player);
+        state.setDelayedAnnounce(true);
+    }
+
+    /**
+     * Marks a player to be announced when they next become visible
+     *
+     * @param player name of the player
+     * @deprecated use {@link #addToDelayedAnnounce(Player)}
+     */
+    @Deprecated
+    public void addToDelayedAnnounce(String player) {
+        final Player online = this.plugin.getServer().getPlayerExact(player);
+        if (online != null) {
+            this.addToDelayedAnnounce(online);
+        }
+    }
+
+    /**
+     * Removes a player's delayed announce
+     *
+     * @param player the player
+     */
+    public void dropDelayedAnnounce(Player player) {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        if (state != null) {
+            state.setDelayedAnnounce(false);
+        }
     }
 
     /**
      * Removes a player's delayed announce
      *
      * @param player name of the player
+     * @deprecated use {@link #dropDelayedAnnounce(Player)}
      */
+    @Deprecated
     public void dropDelayedAnnounce(String player) {
-        this.delayedAnnouncePlayerList.remove(player);
+        final Player online = this.plugin.getServer().getPlayerExact(player);
+        if (online != null) {
+            this.dropDelayedAnnounce(online);
+        }
     }
 
     /**
@@ -59,26 +85,38 @@ public final class VanishAnnounceManipulator {
         if (player == null) {
             return false;
         }
-        playerName = player.getName();
-        if (this.playerOnlineStatus.containsKey(playerName)) {
-            return this.playerOnlineStatus.get(playerName);
-        } else {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        return (state == null) || (state.getFakeOnline() == null) || state.getFakeOnline();
+    }
+
+    /**
+     * Marks a player as quit
+     * Called when a player quits, before their state is dropped
+     * 
+     * @param player the player who just quit
+     * @return the former fake online status of the player
+     */
+    public boolean playerHasQuit(Player player) {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        if ((state == null) || (state.getFakeOnline() == null)) {
             return true;
         }
+        final boolean fakeOnline = state.getFakeOnline();
+        state.setFakeOnline(null);
+        return fakeOnline;
     }
 
     /**
      * Marks a player as quit
-     * Called when a player quits
-     * 
+     *
      * @param player name of the player who just quit
      * @return the former fake online status of the player
+     * @deprecated use {@link #playerHasQuit(Player)}
      */
+    @Deprecated
     public boolean playerHasQuit(String player) {
-        if (this.playerOnlineStatus.containsKey(player)) {
-            return this.playerOnlineStatus.remove(player);
-        }
-        return true;
+        final Player online = this.plugin.getServer().getPlayerExact(player);
+        return (online == null) || this.playerHasQuit(online);
     }
 
     private String injectPlayerInformation(String message, Player player) {
@@ -103,28 +141,35 @@ public final class VanishAnnounceManipulator {
     }
 
     void fakeJoin(Player player, boolean force) {
-        if (force || !(this.playerOnlineStatus.containsKey(player.getName()) && this.playerOnlineStatus.get(player.getName()))) {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        if (force || (state == null) || !Boolean.TRUE.equals(state.getFakeOnline())) {
             this.plugin.getServer().broadcastMessage(ChatColor.YELLOW + this.injectPlayerInformation(Settings.getFakeJoin(), player));
             this.plugin.getLogger().info(player.getName() + " faked joining");
             MetricsOverlord.getFakejoinTracker().increment();
-            this.playerOnlineStatus.put(player.getName(), true);
+            if (state != null) {
+                state.setFakeOnline(true);
+            }
         }
     }
 
     void fakeQuit(Player player, boolean force) {
-        if (force || !(this.playerOnlineStatus.containsKey(player.getName()) && !this.playerOnlineStatus.get(player.getName()))) {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        if (force || (state == null) || !Boolean.FALSE.equals(state.getFakeOnline())) {
             this.plugin.getServer().broadcastMessage(ChatColor.YELLOW + this.injectPlayerInformation(Settings.getFakeQuit(), player));
             this.plugin.getLogger().info(player.getName() + " faked quitting");
             MetricsOverlord.getFakequitTracker().increment();
-            this.playerOnlineStatus.put(player.getName(), false);
+            if (state != null) {
+                state.setFakeOnline(false);
+            }
         }
     }
 
     void vanishToggled(Player player) {
-        if (!Settings.getAutoFakeJoinSilent() || !this.delayedAnnouncePlayerList.contains(player.getName())) {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        if (!Settings.getAutoFakeJoinSilent() || (state == null) || !state.hasDelayedAnnounce()) {
             return;
         }
         this.fakeJoin(player, false);
-        this.dropDelayedAnnounce(player.getName());
+        this.dropDelayedAnnounce(player);
     }
-}
\ No newline at end of file
+}
@@ -42,7 +42,9 @@ public final class VanishCommand implements CommandExecutor {
         if (args.length == 0) {
             if (sender instanceof Player) {
                 if (VanishPerms.canVanish((Player) sender)) {
-                    this.plugin.getManager().toggleVanish((Player) sender);
+                    if (!this.throttled((Player) sender)) {
+                        this.plugin.getManager().toggleVanish((Player) sender);
+                    }
                 } else {
                     this.denied(sender);
                 }
@@ -82,9 +84,48 @@ public final class VanishCommand implements CommandExecutor {
             }
             return true;
         }
+        if (goal.equalsIgnoreCase("stats")) {
+            if (VanishPerms.canSeeStats(sender)) {
+                sender.sendMessage(ChatColor.DARK_AQUA + "Vanished: " + ChatColor.AQUA + this.plugin.getManager().numVanished());
+                sender.sendMessage(ChatColor.DARK_AQUA + "Queued hides: " + ChatColor.AQUA + this.plugin.getManager().getPendingHides() + ChatColor.DARK_AQUA + ", shows: " + ChatColor.AQUA + this.plugin.getManager().getPendingShows());
+                sender.sendMessage(ChatColor.DARK_AQUA + "Permission cache misses: " + ChatColor.AQUA + this.plugin.getManager().getUserCacheMisses() + ChatColor.DARK_AQUA + ", recalculating: " + ChatColor.AQUA + this.plugin.getManager().getPendingRecalculations());
+                sender.sendMessage(ChatColor.DARK_AQUA + "Join cost average: " + ChatColor.AQUA + this.plugin.getManager().getJoinCostAverage() + "us" + ChatColor.DARK_AQUA + ", max: " + ChatColor.AQUA + this.plugin.getManager().getJoinCostMax() + "us" + ChatColor.DARK_AQUA + ", deferred: " + ChatColor.AQUA + this.plugin.getManager().getPendingDeferred());
+                sender.sendMessage(ChatColor.DARK_AQUA + "Throttled toggles: " + ChatColor.AQUA + this.plugin.getManager().getThrottledToggles() + ChatColor.DARK_AQUA + ", status checks: " + ChatColor.AQUA + this.plugin.getManager().getThrottledStatusChecks());
+                sender.sendMessage(ChatColor.DARK_AQUA + "Dropped effect operations: " + ChatColor.AQUA + this.plugin.getManager().getDroppedEffects());
+            } else {
+                this.denied(sender);
+            }
+            return true;
+        }
+        if (goal.equalsIgnoreCase("prevanish")) {
+            if (VanishPerms.canPreVanish(sender)) {
+                if (args.length == 1) {
+                    final StringBuilder list = new StringBuilder();
+                    for (final String name : this.plugin.getManager().getPreVanished()) {
+                        if (list.length() > 0) {
+                            list.append(ChatColor.DARK_AQUA);
+                            list.append(',');
+                        }
+                        list.append(ChatColor.AQUA);
+                        list.append(name);
+                    }
+                    list.insert(0, "Pre-vanished: ");
+                    list.insert(0, ChatColor.DARK_AQUA);
+                    sender.sendMessage(list.toString());
+                } else if (this.plugin.getManager().setPreVanished(args[1], true)) {
+                    sender.sendMessage(ChatColor.AQUA + args[1] + ChatColor.DARK_AQUA + " will join vanished");
+                } else {
+                    this.plugin.getManager().setPreVanished(args[1], false);
+                    sender.sendMessage(ChatColor.AQUA + args[1] + ChatColor.DARK_AQUA + " will no longer join vanished");
+                }
+            } else {
+                this.denied(sender);
+            }
+            return true;
+        }
         // Goodbye console!
         if (!(sender instanceof Player)) {
-            sender.sendMessage(ChatColor.AQUA + "Did you mean " + ChatColor.WHITE + "vanish reload" + ChatColor.AQUA + " or " + ChatColor.WHITE + "vanish list" + ChatColor.AQUA + "?");
+            sender.sendMessage(ChatColor.AQUA + "Did you mean " + ChatColor.WHITE + "vanish reload" + ChatColor.AQUA + ", " + ChatColor.WHITE + "vanish list" + ChatColor.AQUA + ", " + ChatColor.WHITE + "vanish stats" + ChatColor.AQUA + " or " + ChatColor.WHITE + "vanish prevanish" + ChatColor.AQUA + "?");
             return true;
         }
         // No more console options below this point
@@ -182,7 +223,7 @@ public final class VanishCommand implements CommandExecutor {
                 this.denied(sender);
                 return true;
             }
-            if (!this.plugin.getManager().isVanished(player)) {
+            if (!this.plugin.getManager().isVanished(player) && !this.throttled(player)) {
                 this.plugin.getManager().toggleVanish(player);
                 // Fake announce as well?
                 if ((args.length > 1) && args[1].equalsIgnoreCase("fake") && VanishPerms.canFakeAnnounce(player)) {
@@ -196,7 +237,7 @@ public final class VanishCommand implements CommandExecutor {
                 this.denied(sender);
                 return true;
             }
-            if (this.plugin.getManager().isVanished(player)) {
+            if (this.plugin.getManager().isVanished(player) && !this.throttled(player)) {
                 this.plugin.getManager().toggleVanish(player);
                 // Fake announce as well?
                 if ((args.length > 1) && args[1].equalsIgnoreCase("fake") && VanishPerms.canFakeAnnounce(player)) {
@@ -216,6 +257,9 @@ public final class VanishCommand implements CommandExecutor {
         // Fake announces. Requires vanish.fakeannounce
         if ((goal.equalsIgnoreCase("fakequit") || goal.equalsIgnoreCase("fq"))) {
             if (VanishPerms.canFakeAnnounce(player)) {
+                if (this.throttled(player)) {
+                    return true;
+                }
                 if (!this.plugin.getManager().isVanished(player)) {
                     this.plugin.getManager().toggleVanish(player);
                 } else {
@@ -233,6 +277,9 @@ public final class VanishCommand implements CommandExecutor {
         }
         if ((goal.equalsIgnoreCase("fakejoin") || goal.equalsIgnoreCase("fj"))) {
             if (VanishPerms.canFakeAnnounce(player)) {
+                if (this.throttled(player)) {
+                    return true;
+                }
                 if (this.plugin.getManager().isVanished(player)) {
                     this.plugin.getManager().toggleVanish(player);
                 } else {
@@ -279,7 +326,18 @@ public final class VanishCommand implements CommandExecutor {
         sender.sendMessage(ChatColor.AQUA + "[Vanish] " + ChatColor.DARK_AQUA + "Access denied.");
     }
 
+    private boolean throttled(Player player) {
+        if (this.plugin.getManager().allowToggle(player)) {
+            return false;
+        }
+        player.sendMessage(ChatColor.AQUA + "[Vanish] " + ChatColor.DARK_AQUA + "Slow down.");
+        return true;
+    }
+
     private void toggle(Player player, String toggle) {
+        if (this.throttled(player)) {
+            return;
+        }
         final StringBuilder message = new StringBuilder();
         MetricsOverlord.getToggleTracker().increment();
         boolean status = false;
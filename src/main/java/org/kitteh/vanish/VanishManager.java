@@ -1,85 +1,273 @@
 package org.kitteh.vanish;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.bukkit.ChatColor;
 import org.bukkit.Effect;
 import org.bukkit.Location;
-import org.bukkit.World;
-import org.bukkit.entity.Creature;
+import org.bukkit.Sound;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
 import org.bukkit.plugin.messaging.PluginMessageListener;
+import org.kitteh.vanish.event.VanishBatchStatusChangeEvent;
 import org.kitteh.vanish.event.VanishStatusChangeEvent;
+import org.kitteh.vanish.hooks.Hook;
+import org.kitteh.vanish.hooks.HookManager.HookType;
+import org.kitteh.vanish.hooks.plugins.ProtocolLibHook;
+import org.kitteh.vanish.listeners.ListenEntity;
+import org.kitteh.vanish.listeners.ListenPlayerOther;
+import org.kitteh.vanish.listeners.ListenToYourHeart;
 import org.kitteh.vanish.metrics.MetricsOverlord;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 
 public final class VanishManager {
-    private final class ShowPlayerEntry {
+    /**
+     * An immutable view of the vanished players, replaced on every change.
+     * Only written on the main thread, read from anywhere.
+     */
+    private static final class VanishedSnapshot {
+        private final ImmutableSet<String> names;
+        private final long version;
+
+        private VanishedSnapshot(ImmutableSet<String> names, long version) {
+            this.names = names;
+            this.version = version;
+        }
+    }
+
+    /**
+     * A vanish change requested from any thread, applied on the main thread
+     */
+    private static final class AsyncToggle {
         private final Player player;
-        private final Player target;
+        private final Boolean vanish;
+        private final boolean silent;
+        private final SettableFuture<Boolean> future = SettableFuture.create();
 
-        public ShowPlayerEntry(Player player, Player target) {
+        private AsyncToggle(Player player, Boolean vanish, boolean silent) {
             this.player = player;
-            this.target = target;
+            this.vanish = vanish;
+            this.silent = silent;
         }
+    }
+
+    /**
+     * Most cached permission sets recalculated per tick after a reload
+     */
+    private static final int RECALCULATIONS_PER_TICK = 10;
+
+    /**
+     * Most time spent per tick on deferred work, at least one task always runs
+     */
+    private static final long DEFERRED_NANOS_PER_TICK = 2000000L;
 
-        public Player getPlayer() {
-            return this.player;
+    /**
+     * Blocks away a player can be and still see vanish effects
+     */
+    private static final int EFFECT_RANGE = 64;
+
+    private static final byte[] STATUS_CHECK = { 'c', 'h', 'e', 'c', 'k' };
+
+    private final VanishPlugin plugin;
+    private volatile VanishedSnapshot vanished = new VanishedSnapshot(ImmutableSet.<String> of(), 0);
+    private final ConcurrentMap<UUID, VanishPlayerState> states = new ConcurrentHashMap<UUID, VanishPlayerState>();
+    private final BatFlocks bats = new BatFlocks();
+    private volatile int vanishedCount = 0;
+    private volatile int batCount = 0;
+    private volatile boolean idle = true;
+    private final Listener[] protection;
+    private boolean protectionRegistered = false;
+    private final Queue<VanishPlayerState> recalculations = new ArrayDeque<VanishPlayerState>();
+    private final Queue<Runnable> deferred = new ArrayDeque<Runnable>();
+    private final Map<Player, Boolean> joinBatch = new LinkedHashMap<Player, Boolean>();
+    private final PendingToggles<Player> pendingToggles = new PendingToggles<Player>();
+    private int transactionDepth = 0;
+    private int transactionTicks = 0;
+    private final Set<Player> transactionPlayers = new HashSet<Player>();
+    private final Queue<AsyncToggle> asyncToggles = new ConcurrentLinkedQueue<AsyncToggle>();
+    private volatile boolean disabled = false;
+    private long throttledStatusChecks = 0;
+    private long throttledToggles = 0;
+    private long joins = 0;
+    private long joinNanos = 0;
+    private long joinNanosMax = 0;
+    private final AtomicLong userCacheMisses = new AtomicLong();
+    private final VanishUserStore userStore;
+    private final Set<String> restoring = new HashSet<String>();
+    private final PreVanishIndex preVanish;
+    private final Set<String> preVanishMatched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> preVanishJoining = new HashSet<String>();
+    private final VanishAnnounceManipulator announceManipulator;
+    private final Random random = new Random();
+    private final VisibilityScheduler<Player> scheduler = new VisibilityScheduler<Player>(new VisibilityScheduler.Sink<Player>() {
+        @Override
+        public void hide(Player viewer, Player target) {
+            viewer.hidePlayer(target);
         }
 
-        public Player getTarget() {
-            return this.target;
+        @Override
+        public boolean isOnline(Player player) {
+            return player.isOnline();
+        }
+
+        @Override
+        public void show(Player viewer, Player target) {
+            viewer.showPlayer(target);
+        }
+    }, new VisibilityScheduler.Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    });
+    private final CreatureRetargeter retargeter = new CreatureRetargeter(this);
+    private final EffectScheduler effects = new EffectScheduler();
+    private final VisibilityMatrix<Player> visibility = new VisibilityMatrix<Player>();
+    private final VisibilityMatrix.Applier<Player> applier = new VisibilityMatrix.Applier<Player>() {
+        @Override
+        public void hide(Player viewer, Player target) {
+            Debuggle.log("Hiding " + target.getName() + " from " + viewer.getName());
+            VanishManager.this.scheduler.hide(viewer, target);
         }
-    }
 
-    private final class ShowPlayerHandler implements Runnable {
-        Set<ShowPlayerEntry> entries = new HashSet<ShowPlayerEntry>();
-        Set<ShowPlayerEntry> next = new HashSet<ShowPlayerEntry>();
+        @Override
+        public void refresh(Player viewer, Player target) {
+            VanishManager.this.scheduler.refresh(viewer, target);
+        }
 
-        public void add(ShowPlayerEntry player) {
-            this.entries.add(player);
+        @Override
+        public void show(Player viewer, Player target) {
+            Debuggle.log("Showing " + target.getName() + " to " + viewer.getName());
+            VanishManager.this.scheduler.show(viewer, target);
+        }
+    };
+    private final VisibilityMatrix.Applier<Player> immediateApplier = new VisibilityMatrix.Applier<Player>() {
+        @Override
+        public void hide(Player viewer, Player target) {
+            viewer.hidePlayer(target);
         }
 
         @Override
-        public void run() {
-            for (final ShowPlayerEntry entry : this.next) {
-                final Player player = entry.getPlayer();
-                final Player target = entry.getTarget();
-                if ((player != null) && player.isOnline() && (target != null) && target.isOnline()) {
-                    player.showPlayer(target);
-                }
+        public void refresh(Player viewer, Player target) {
+            viewer.hidePlayer(target);
+            viewer.showPlayer(target);
+        }
+
+        @Override
+        public void show(Player viewer, Player target) {
+            if (viewer.isOnline()) {
+                viewer.showPlayer(target);
             }
-            this.next.clear();
-            this.next.addAll(this.entries);
-            this.entries.clear();
         }
-    }
+    };
 
-    private final VanishPlugin plugin;
-    private final Set<String> vanishedPlayerNames = Collections.synchronizedSet(new HashSet<String>());
-    private final Map<String, Boolean> sleepIgnored = new HashMap<String, Boolean>();
-    private final Set<UUID> bats = new HashSet<UUID>();
-    private final VanishAnnounceManipulator announceManipulator;
-    private final Random random = new Random();
-    private final ShowPlayerHandler showPlayer = new ShowPlayerHandler();
+    private final VisibilityMatrix.Applier<Player> reconcilingApplier = new VisibilityMatrix.Applier<Player>() {
+        @Override
+        public void hide(Player viewer, Player target) {
+            if (viewer.canSee(target)) {
+                viewer.hidePlayer(target);
+            }
+        }
+
+        @Override
+        public void refresh(Player viewer, Player target) {
+            // Already showing the target, nothing to resend
+        }
+
+        @Override
+        public void show(Player viewer, Player target) {
+            if (!viewer.canSee(target)) {
+                viewer.showPlayer(target);
+            }
+        }
+    };
 
     public VanishManager(final VanishPlugin plugin) {
         this.plugin = plugin;
         this.announceManipulator = new VanishAnnounceManipulator(this.plugin);
-        this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin, this.showPlayer, 4, 4);
+        this.preVanish = new PreVanishIndex(new File(this.plugin.getDataFolder(), "prevanish.dat"));
+        try {
+            this.preVanish.load();
+        } catch (final IOException e) {
+            this.plugin.getLogger().log(Level.WARNING, "Could not load pre-vanished players", e);
+        }
+        this.userStore = new VanishUserStore(new File(this.plugin.getDataFolder(), "users.dat"), this.plugin.getLogger());
+        this.plugin.getServer().getScheduler().runTaskAsynchronously(this.plugin, new Runnable() {
+            @Override
+            public void run() {
+                VanishManager.this.userStore.load();
+                plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+                    @Override
+                    public void run() {
+                        for (final VanishPlayerState state : VanishManager.this.states.values()) {
+                            state.applyStoredOverrides(VanishManager.this.userStore);
+                        }
+                    }
+                });
+            }
+        });
+        this.plugin.getServer().getScheduler().runTaskTimerAsynchronously(this.plugin, new Runnable() {
+            @Override
+            public void run() {
+                VanishManager.this.userStore.flush();
+            }
+        }, 100, 100);
+        this.protection = new Listener[] { new ListenEntity(this.plugin), new ListenPlayerOther(this.plugin), new ListenToYourHeart(this.plugin) };
+        this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin, new Runnable() {
+            @Override
+            public void run() {
+                VanishManager.this.flushJoins();
+                VanishManager.this.drainAsyncToggles();
+                VanishManager.this.commitToggles();
+            }
+        }, 1, 1);
+        this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin, this.scheduler, 1, 1);
+        this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin, this.retargeter, 1, 1);
+        this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin, this.effects, 1, 1);
+        this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin, new Runnable() {
+            @Override
+            public void run() {
+                if (VanishManager.this.bats.sweep() > 0) {
+                    VanishManager.this.updateCounts();
+                }
+            }
+        }, 100, 100);
+        this.plugin.getServer().getScheduler().scheduleSyncRepeatingTask(this.plugin, new Runnable() {
+            @Override
+            public void run() {
+                VanishManager.this.recalculateQueued();
+                VanishManager.this.runDeferred();
+            }
+        }, 1, 1);
 
         this.plugin.getServer().getMessenger().registerIncomingPluginChannel(this.plugin, "vanishStatus", new PluginMessageListener() {
             @Override
             public void onPluginMessageReceived(String channel, Player player, byte[] message) {
-                if (channel.equals("vanishStatus") && new String(message).equals("check")) {
+                if (channel.equals("vanishStatus") && Arrays.equals(message, VanishManager.STATUS_CHECK) && VanishManager.this.allowStatusCheck(player)) {
                     player.sendPluginMessage(plugin, "vanishStatus", VanishManager.this.isVanished(player) ? new byte[] { 0x01 } : new byte[] { 0x00 });
                 }
             }
@@ -88,6 +276,67 @@ public final class VanishManager {
 
     }
 
+    /**
+     * Marks or unmarks an offline player to join vanished
+     * The player is vanished before they are visible to anyone, once.
+     *
+     * @param name name of the player
+     * @param preVanished true to vanish them on their next join
+     * @return false if nothing changed
+     */
+    public boolean setPreVanished(String name, boolean preVanished) {
+        final boolean changed = preVanished ? this.preVanish.add(name) : this.preVanish.remove(name);
+        if (changed) {
+            this.plugin.getServer().getScheduler().runTaskAsynchronously(this.plugin, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        VanishManager.this.preVanish.save();
+                    } catch (final IOException e) {
+                        VanishManager.this.plugin.getLogger().log(Level.WARNING, "Could not save pre-vanished players", e);
+                    }
+                }
+            });
+        }
+        return changed;
+    }
+
+    /**
+     * Checks if a player was vanished when the plugin last shut down and
+     * may still vanish, forgetting them afterwards
+     * A player who may not is shown to everyone still hiding them.
+     * Do not call this method
+     *
+     * @param player the joining player
+     * @return true if the player should rejoin vanished
+     */
+    public boolean consumeRestoredVanish(Player player) {
+        if (!this.restoring.remove(player.getName().toLowerCase())) {
+            return false;
+        }
+        if (Settings.getPersistVanished() && VanishPerms.canVanish(player)) {
+            return true;
+        }
+        this.revealLeftover(player);
+        return false;
+    }
+
+    /**
+     * Checks if a player was pre-vanished and settled as vanished at login,
+     * forgetting them afterwards
+     * Do not call this method
+     *
+     * @param player the joining player
+     * @return true if the player should join vanished
+     */
+    public boolean consumePreVanish(Player player) {
+        if (this.preVanishJoining.remove(player.getName().toLowerCase())) {
+            this.removeVanished(player.getName());
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Gets the announcement manipulator
      * Called by JSONAPI
@@ -99,11 +348,192 @@ public final class VanishManager {
     }
 
     public Set<UUID> getBats() {
-        return this.bats;
+        return this.bats.getIds();
+    }
+
+    /**
+     * Gets the names of offline players marked to join vanished
+     *
+     * @return sorted lowercase names
+     */
+    public List<String> getPreVanished() {
+        return Arrays.asList(this.preVanish.getNames());
     }
 
+    /**
+     * Gets the names of all vanished players
+     * The returned set is immutable and safe to read from any thread.
+     *
+     * @return the vanished player names
+     */
     public Set<String> getVanishedPlayers() {
-        return ImmutableSet.copyOf(this.vanishedPlayerNames);
+        return this.vanished.names;
+    }
+
+    /**
+     * Gets the version of the vanished player set
+     * Increases every time a player vanishes or reappears.
+     *
+     * @return current vanished set version
+     */
+    public long getVanishedVersion() {
+        return this.vanished.version;
+    }
+
+    /**
+     * Takes one of a player's toggle command tokens
+     * Players out of tokens should have their command dropped.
+     *
+     * @param player player running a toggle command
+     * @return true if the command may run
+     */
+    public boolean allowToggle(Player player) {
+        final VanishPlayerState state = this.getState(player);
+        if ((state == null) || state.getToggleLimit().tryTake(Settings.getToggleRate(), Settings.getToggleBurst(), System.nanoTime())) {
+            return true;
+        }
+        this.throttledToggles++;
+        return false;
+    }
+
+    /**
+     * Gets the number of vanishStatus channel checks dropped for exceeding
+     * the rate limit
+     *
+     * @return dropped check count
+     */
+    public long getThrottledStatusChecks() {
+        return this.throttledStatusChecks;
+    }
+
+    /**
+     * Gets the number of toggle commands dropped for exceeding the rate
+     * limit
+     *
+     * @return dropped command count
+     */
+    public long getThrottledToggles() {
+        return this.throttledToggles;
+    }
+
+    /**
+     * Queues work that doesn't need to happen this tick, such as hooks and
+     * notifications. Queued work runs on later ticks within a time budget.
+     * Tasks may run after the player they concern has quit.
+     *
+     * @param task work to run
+     */
+    public void defer(Runnable task) {
+        this.deferred.add(task);
+    }
+
+    /**
+     * Gets the average time the join handlers spent per join
+     *
+     * @return average join cost in microseconds
+     */
+    public long getJoinCostAverage() {
+        return this.joins == 0 ? 0 : (this.joinNanos / this.joins) / 1000;
+    }
+
+    /**
+     * Gets the longest time the join handlers spent on a single join
+     *
+     * @return most expensive join in microseconds
+     */
+    public long getJoinCostMax() {
+        return this.joinNanosMax / 1000;
+    }
+
+    /**
+     * Gets the number of effect operations dropped for exceeding the
+     * per-tick effect budget
+     *
+     * @return dropped operation count
+     */
+    public long getDroppedEffects() {
+        return this.effects.getDropped();
+    }
+
+    /**
+     * Gets the number of deferred tasks waiting to run
+     *
+     * @return queued task count
+     */
+    public int getPendingDeferred() {
+        return this.deferred.size();
+    }
+
+    /**
+     * Records the time the join handlers spent on a join
+     *
+     * @param nanos time spent in the join tick
+     */
+    public void recordJoinCost(long nanos) {
+        this.joins++;
+        this.joinNanos += nanos;
+        this.joinNanosMax = Math.max(this.joinNanosMax, nanos);
+    }
+
+    /**
+     * Gets the number of permission lookups that had to compute a new
+     * permission set
+     *
+     * @return cache miss count
+     */
+    public long getUserCacheMisses() {
+        return this.userCacheMisses.get();
+    }
+
+    /**
+     * Gets the number of players waiting for their permissions to be
+     * recalculated
+     *
+     * @return queued recalculation count
+     */
+    public int getPendingRecalculations() {
+        return this.recalculations.size();
+    }
+
+    /**
+     * Waits until a player's saved toggles are in memory, so their join
+     * doesn't need to touch the disk
+     * Do not call this method from the main thread
+     *
+     * @param name name of the player about to join
+     */
+    public void prefetchUser(String name) {
+        if (!this.userStore.awaitLoad(5000)) {
+            this.plugin.getLogger().warning("Saved toggles not loaded in time for " + name);
+        }
+    }
+
+    /**
+     * Queues the cached permissions of every online player for
+     * recalculation, spread over the following ticks
+     * Cached values stay in use until each player is reached.
+     */
+    public void invalidatePermissions() {
+        for (final VanishPlayerState state : this.states.values()) {
+            if (!state.isRecalculationQueued()) {
+                state.setRecalculationQueued(true);
+                this.recalculations.add(state);
+            }
+        }
+    }
+
+    /**
+     * Recalculates a player's cached permissions
+     * Call this after changing a player's permissions at runtime.
+     *
+     * @param player player to recalculate
+     */
+    public void invalidatePermissions(Player player) {
+        final VanishPlayerState state = this.getState(player);
+        if (state != null) {
+            state.recalculatePermissions();
+            this.resetSeeing(player);
+        }
     }
 
     /**
@@ -113,7 +543,7 @@ public final class VanishManager {
      * @return true if vanished
      */
     public boolean isVanished(Player player) {
-        return this.vanishedPlayerNames.contains(player.getName());
+        return this.vanished.names.contains(player.getName());
     }
 
     /**
@@ -132,13 +562,117 @@ public final class VanishManager {
         return false;
     }
 
+    /**
+     * Gets the state of an online player
+     *
+     * @param player player to query
+     * @return the player's state, or null if not online
+     */
+    public VanishPlayerState getState(Player player) {
+        return this.states.get(player.getUniqueId());
+    }
+
+    /**
+     * Gets the number of hidePlayer calls queued but not yet applied
+     *
+     * @return queued hide count
+     */
+    public int getPendingHides() {
+        return this.scheduler.getPendingHides();
+    }
+
+    /**
+     * Gets the number of showPlayer calls queued but not yet applied
+     *
+     * @return queued show count
+     */
+    public int getPendingShows() {
+        return this.scheduler.getPendingShows();
+    }
+
     /**
      * Gets the number of vanished players
      *
      * @return the number of players currently vanished
      */
     public int numVanished() {
-        return this.vanishedPlayerNames.size();
+        return this.vanishedCount;
+    }
+
+    /**
+     * Gets if nobody is vanished and no effect bats are alive
+     * Listeners can skip all work when this is true.
+     *
+     * @return true if there is nothing to protect
+     */
+    public boolean isIdle() {
+        return this.idle;
+    }
+
+    /**
+     * Settles a pre-vanished player as vanished before their entity is
+     * added to the world
+     * Do not call this method
+     *
+     * @param player the player logging in
+     */
+    public void playerLogin(final Player player) {
+        final String name = player.getName().toLowerCase();
+        if (!this.preVanishMatched.remove(name)) {
+            return;
+        }
+        Debuggle.log("Pre-vanishing: " + player.getName());
+        this.addVanished(player.getName());
+        this.preVanishJoining.add(name);
+        this.setPreVanished(name, false);
+        this.plugin.getServer().getScheduler().runTaskLater(this.plugin, new Runnable() {
+            @Override
+            public void run() {
+                if (VanishManager.this.preVanishJoining.remove(name)) {
+                    VanishManager.this.removeVanished(player.getName());
+                }
+            }
+        }, 20);
+    }
+
+    /**
+     * Forgets a pre-vanish match for a player turned away at login, so it
+     * can't outlive an unmark before their next attempt
+     * Do not call this method
+     *
+     * @param player the player denied login
+     */
+    public void playerLoginDenied(Player player) {
+        this.preVanishMatched.remove(player.getName().toLowerCase());
+    }
+
+    /**
+     * Checks the pre-vanish index for a player about to log in
+     * Do not call this method
+     *
+     * @param name name of the player, from the async pre-login thread
+     */
+    public void playerPreLogin(String name) {
+        if (this.preVanish.contains(name)) {
+            this.preVanishMatched.add(name.toLowerCase());
+        }
+    }
+
+    /**
+     * Marks a player as having joined the game
+     * Vanished players are hidden from them right away, before the server
+     * sends them any entities. Their permissions are checked again with
+     * everyone else who joined the same tick, in one pass on the next tick.
+     * Do not call this method
+     *
+     * @param player the player who has joined
+     */
+    public void playerJoin(Player player) {
+        final VanishPlayerState state = this.state(player);
+        state.getMetadata().set(this.isVanished(player));
+        player.setMetadata("vanished", state.getMetadata());
+        this.visibility.add(player, VanishPerms.canSeeAll(player), this.reconcilingApplier);
+        this.joinBatch.put(player, Boolean.TRUE);
     }
 
     /**
@@ -149,12 +683,18 @@ public final class VanishManager {
      */
     public void playerQuit(Player player) {
         Debuggle.log("Quitting: " + player.getName());
-        this.resetSleepingIgnored(player);
-        VanishPerms.userQuit(player);
-        this.removeVanished(player.getName());
-        for (Player otherPlayer : this.plugin.getServer().getOnlinePlayers()) {
-            otherPlayer.showPlayer(player);
+        final VanishPlayerState state = this.states.remove(player.getUniqueId());
+        if (state != null) {
+            state.resetSleepingIgnored();
+            state.getMetadata().set(false);
         }
+        this.removeVanished(player.getName());
+        this.joinBatch.remove(player);
+        this.pendingToggles.remove(player);
+        this.transactionPlayers.remove(player);
+        // Queued shows have already cleared their matrix bits
+        this.scheduler.targetQuit(player);
+        this.visibility.remove(player, this.immediateApplier);
     }
 
     /**
@@ -176,49 +716,26 @@ public final class VanishManager {
      */
     public void resetSeeing(Player player) {
         Debuggle.log("Resetting visibility on " + player.getName());
-        if (VanishPerms.canSeeAll(player)) {
-            this.showVanished(player);
-            Debuggle.log("Showing all to " + player.getName());
-        } else {
-            this.hideVanished(player);
-            Debuggle.log("Hiding all to " + player.getName());
-        }
+        this.visibility.setSeeAll(player, VanishPerms.canSeeAll(player), this.applier);
     }
 
     /**
      * Toggles a player's visibility
      * Called when a player calls /vanish
-     * Talks to the player and everyone with vanish.see
+     * Talks to the player and everyone with vanish.see, once the tick's
+     * toggles are committed and only if the player's status changed
      * Will trigger effects
      *
      * @param togglingPlayer the player disappearing
      */
     public void toggleVanish(Player togglingPlayer) {
-        this.toggleVanishQuiet(togglingPlayer);
-        final String vanishingPlayerName = togglingPlayer.getName();
-        final String messageBit;
-        final String base = ChatColor.YELLOW + vanishingPlayerName + " has ";
-        if (this.isVanished(togglingPlayer)) {
-            Debuggle.log("LoudVanishToggle Vanishing " + togglingPlayer.getName());
-            this.plugin.hooksVanish(togglingPlayer);
-            messageBit = "vanished. Poof.";
-
-        } else {
-            Debuggle.log("LoudVanishToggle Revealing " + togglingPlayer.getName());
-            this.plugin.hooksUnvanish(togglingPlayer);
-            messageBit = "become visible.";
-            this.announceManipulator.vanishToggled(togglingPlayer);
-        }
-        final String message = base + messageBit;
-        togglingPlayer.sendMessage(ChatColor.DARK_AQUA + "You have " + messageBit);
-        this.plugin.messageStatusUpdate(message, togglingPlayer);
+        this.toggle(togglingPlayer, true, true);
     }
 
     /**
      * Toggles a player's visibility
      * Does not say anything.
      * Will trigger effects
-     * Called by toggleVanish(Player)
      *
      * @param vanishingPlayer
      */
@@ -229,81 +746,149 @@ public final class VanishManager {
     /**
      * Toggles a player's visibility
      * Does not say anything.
+     * The player's vanish status changes right away. Everything that follows
+     * from it, from hiding them to events, hooks and effects, happens on the
+     * next tick, and only if their status still differs from before the
+     * first toggle of this tick.
      *
      * @param vanishingPlayer
      * @param effects if true, trigger effects
      */
     public void toggleVanishQuiet(Player vanishingPlayer, boolean effects) {
+        this.toggle(vanishingPlayer, effects, false);
+    }
+
+    private void toggle(Player vanishingPlayer, boolean effects, boolean announce) {
+        final VanishPlayerState state = this.getState(vanishingPlayer);
+        if (state == null) {
+            // Already quit, toggling now would only leak their state
+            Debuggle.log("Ignoring toggle of departed " + vanishingPlayer.getName());
+            return;
+        }
         final boolean vanishing = !this.isVanished(vanishingPlayer);
         final String vanishingPlayerName = vanishingPlayer.getName();
+        this.pendingToggles.add(vanishingPlayer, vanishing, effects, announce);
+        if (this.transactionDepth > 0) {
+            this.transactionPlayers.add(vanishingPlayer);
+        }
         if (vanishing) {
             Debuggle.log("It's invisible time! " + vanishingPlayer.getName());
-            this.setSleepingIgnored(vanishingPlayer);
-            if (VanishPerms.canNotFollow(vanishingPlayer)) {
-                for (final Entity entity : vanishingPlayer.getNearbyEntities(100, 100, 100)) {
-                    if ((entity != null) && (entity instanceof Creature)) {
-                        final Creature creature = ((Creature) entity);
-                        if ((creature != null) && (creature.getTarget() != null) && creature.getTarget().equals(vanishingPlayer)) {
-                            creature.setTarget(null);
-                        }
-                    }
-                }
-            }
-            this.vanishedPlayerNames.add(vanishingPlayerName);
+            state.setSleepingIgnored();
+            this.addVanished(vanishingPlayerName);
             MetricsOverlord.getVanishTracker().increment();
             this.plugin.getLogger().info(vanishingPlayerName + " disappeared.");
         } else {
             Debuggle.log("It's visible time! " + vanishingPlayer.getName());
-            this.resetSleepingIgnored(vanishingPlayer);
+            state.resetSleepingIgnored();
             this.removeVanished(vanishingPlayerName);
             MetricsOverlord.getUnvanishTracker().increment();
             this.plugin.getLogger().info(vanishingPlayerName + " reappeared.");
         }
-        if (effects) {
-            final Location oneUp = vanishingPlayer.getLocation().add(0, 1, 0);
-            if (VanishPerms.canEffectSmoke(vanishingPlayer)) {
-                this.effectSmoke(vanishingPlayer.getLocation());
-            }
-            if (VanishPerms.canEffectExplode(vanishingPlayer)) {
-                this.effectExplosion(vanishingPlayer);
-            }
-            if (VanishPerms.canEffectLightning(vanishingPlayer)) {
-                this.effectLightning(vanishingPlayer.getLocation());
-            }
-            if (VanishPerms.canEffectFlames(vanishingPlayer)) {
-                this.effectFlames(oneUp);
-            }
-            if (VanishPerms.canEffectBats(vanishingPlayer)) {
-                this.effectBats(oneUp);
-            }
+        state.getMetadata().set(vanishing);
+        if (this.joinBatch.containsKey(vanishingPlayer)) {
+            this.commitToggles(this.pendingToggles.settle(Collections.singleton(vanishingPlayer)), this.reconcilingApplier, false);
         }
-        this.plugin.getServer().getPluginManager().callEvent(new VanishStatusChangeEvent(vanishingPlayer, vanishing));
-        vanishingPlayer.sendPluginMessage(this.plugin, "vanishStatus", vanishing ? new byte[] { 0x01 } : new byte[] { 0x00 });
-        final Player[] playerList = this.plugin.getServer().getOnlinePlayers();
-        for (final Player otherPlayer : playerList) {
-            if (vanishingPlayer.equals(otherPlayer)) {
-                continue;
+    }
+
+    /**
+     * Sets a player's visibility from any thread
+     * The change is applied on the main thread within a tick, together
+     * with any other requests made that tick.
+     *
+     * @param player player to change
+     * @param vanish true to vanish, false to reveal
+     * @param silent if true, does not say anything or trigger effects
+     * @return future completed with whether the player ends up vanished, or
+     *         failed if the player went offline or the plugin was disabled
+     *         first
+     */
+    public ListenableFuture<Boolean> setVanishedAsync(Player player, boolean vanish, boolean silent) {
+        return this.submitAsync(new AsyncToggle(player, vanish, silent));
+    }
+
+    /**
+     * Toggles a player's visibility from any thread
+     * The toggle is applied on the main thread within a tick, together
+     * with any other requests made that tick.
+     *
+     * @param player player to toggle
+     * @param silent if true, does not say anything or trigger effects
+     * @return future completed with whether the player ends up vanished, or
+     *         failed if the player went offline or the plugin was disabled
+     *         first
+     */
+    public ListenableFuture<Boolean> toggleVanishAsync(Player player, boolean silent) {
+        return this.submitAsync(new AsyncToggle(player, null, silent));
+    }
+
+    /**
+     * Starts a visibility transaction
+     * Vanish changes made until the matching {@link #commitTransaction()}
+     * are applied together, in one visibility pass. Each changed player
+     * gets their usual {@link VanishStatusChangeEvent}, then a single
+     * {@link VanishBatchStatusChangeEvent} covers them all. Changes made before the
+     * transaction started, or to other players, are committed on their own
+     * as usual. Transactions may nest.
+     * Main thread only. Commit within the tick, as a transaction left open
+     * for a whole tick is committed with a warning.
+     */
+    public void beginTransaction() {
+        if (this.transactionDepth++ == 0) {
+            this.transactionTicks = 0;
+        }
+    }
+
+    /**
+     * Ends a visibility transaction, applying its changes if it is the
+     * outermost one
+     *
+     * @throws IllegalStateException if no transaction was started
+     */
+    public void commitTransaction() {
+        if (this.transactionDepth == 0) {
+            throw new IllegalStateException("No visibility transaction to commit");
+        }
+        if (--this.transactionDepth > 0) {
+            return;
+        }
+        final Map<Player, PendingToggles.Toggle> committing = this.pendingToggles.settle(this.transactionPlayers);
+        this.transactionPlayers.clear();
+        this.commitToggles(committing, this.applier, true);
+    }
+
+    /**
+     * Reveals several players at once, in a single transaction
+     *
+     * @param players players to reveal
+     * @param silent if true, does not say anything
+     * @param effects if true, trigger effects
+     */
+    public void revealAll(Collection<Player> players, boolean silent, boolean effects) {
+        this.beginTransaction();
+        try {
+            for (final Player player : players) {
+                this.reveal(player, silent, effects);
             }
-            Debuggle.log("Determining what to do about " + vanishingPlayer.getName() + " for " + otherPlayer.getName());
-            if (vanishing) {
-                if (!VanishPerms.canSeeAll(otherPlayer)) {
-                    if (otherPlayer.canSee(vanishingPlayer)) {
-                        Debuggle.log("Hiding " + vanishingPlayer.getName() + " from " + otherPlayer.getName());
-                        otherPlayer.hidePlayer(vanishingPlayer);
-                    }
-                } else {
-                    otherPlayer.hidePlayer(vanishingPlayer);
-                    this.showPlayer.add(new ShowPlayerEntry(otherPlayer, vanishingPlayer));
-                }
-            } else {
-                if (VanishPerms.canSeeAll(otherPlayer)) {
-                    otherPlayer.hidePlayer(vanishingPlayer);
-                }
-                if (!otherPlayer.canSee(vanishingPlayer)) {
-                    Debuggle.log("Showing " + vanishingPlayer.getName() + " to " + otherPlayer.getName());
-                    this.showPlayer.add(new ShowPlayerEntry(otherPlayer, vanishingPlayer));
-                }
+        } finally {
+            this.commitTransaction();
+        }
+    }
+
+    /**
+     * Vanishes several players at once, in a single transaction
+     *
+     * @param players players to vanish
+     * @param silent if true, does not say anything
+     * @param effects if true, trigger effects
+     */
+    public void vanishAll(Collection<Player> players, boolean silent, boolean effects) {
+        this.beginTransaction();
+        try {
+            for (final Player player : players) {
+                this.vanish(player, silent, effects);
             }
+        } finally {
+            this.commitTransaction();
         }
     }
 
@@ -345,112 +930,473 @@ public final class VanishManager {
         }
     }
 
-    private void effectBats(final Location location) {
-        final Set<UUID> batty = new HashSet<UUID>();
-        for (int x = 0; x < 10; x++) {
-            batty.add(location.getWorld().spawnEntity(location, EntityType.BAT).getUniqueId());
+    private void effectBats(final Location location, final List<Player> viewers) {
+        final ProtocolLibHook packets = this.packetHook();
+        if (Settings.getPacketBats() && (packets != null)) {
+            this.effects.add(1, 1, new EffectScheduler.Step() {
+                @Override
+                public void run(int index) {
+                    packets.fakeBats(location, viewers, 10, 3 * 20);
+                }
+            });
+            return;
         }
-        this.bats.addAll(batty);
+        final BatFlocks.Flock flock = this.bats.create();
+        this.effects.add(10, Settings.getEffectSpread(), new EffectScheduler.Step() {
+            @Override
+            public void run(int index) {
+                VanishManager.this.bats.add(flock, location.getWorld().spawnEntity(location, EntityType.BAT));
+                VanishManager.this.updateCounts();
+            }
+        });
         this.plugin.getServer().getScheduler().runTaskLater(this.plugin, new Runnable() {
             @Override
             public void run() {
-                VanishManager.this.effectBatsCleanup(location.getWorld(), batty);
-                VanishManager.this.bats.removeAll(batty);
+                VanishManager.this.effectBatsCleanup(VanishManager.this.bats.remove(flock));
+                VanishManager.this.updateCounts();
             }
-        }, 3 * 20);
+        }, (3 * 20) + Settings.getEffectSpread());
     }
 
-    private void effectBatsCleanup(World world, Set<UUID> bats) {
-        for (final Entity entity : world.getEntities()) {
-            if (bats.contains(entity.getUniqueId())) {
-                world.playEffect(entity.getLocation(), Effect.SMOKE, this.random.nextInt(9));
-                entity.remove();
-            }
+    private void effectBatsCleanup(List<Entity> bats) {
+        for (final Entity entity : bats) {
+            entity.getWorld().playEffect(entity.getLocation(), Effect.SMOKE, this.random.nextInt(9));
+            entity.remove();
         }
     }
 
-    private void effectExplosion(Player player) {
-        Location loc = player.getLocation();
-        player.getWorld().createExplosion(loc.getX(), loc.getY(), loc.getZ(), 0F, false, false);
+    private void effectExplosion(final Location location, final List<Player> viewers) {
+        final ProtocolLibHook packets = this.packetHook();
+        this.effects.add(1, 1, new EffectScheduler.Step() {
+            @Override
+            public void run(int index) {
+                if (packets != null) {
+                    packets.fakeExplosion(location, viewers);
+                    return;
+                }
+                // Without packets, a smoke ring stands in for the blast
+                for (final Player viewer : viewers) {
+                    if (viewer.isOnline()) {
+                        viewer.playSound(location, Sound.EXPLODE, 4F, 0.7F + (VanishManager.this.random.nextFloat() * 0.2F));
+                        for (int i = 0; i < 9; i++) {
+                            viewer.playEffect(location, Effect.SMOKE, i);
+                        }
+                    }
+                }
+            }
+        });
     }
 
-    private void effectFlames(Location location) {
-        for (int i = 0; i < 10; i++) {
-            location.getWorld().playEffect(location, Effect.MOBSPAWNER_FLAMES, this.random.nextInt(9));
-        }
+    private void effectFlames(final Location location, final List<Player> viewers) {
+        this.effects.add(10, Settings.getEffectSpread(), new EffectScheduler.Step() {
+            @Override
+            public void run(int index) {
+                final int data = VanishManager.this.random.nextInt(9);
+                for (final Player viewer : viewers) {
+                    if (viewer.isOnline()) {
+                        viewer.playEffect(location, Effect.MOBSPAWNER_FLAMES, data);
+                    }
+                }
+            }
+        });
     }
 
-    private void effectLightning(Location location) {
+    private void effectLightning(final Location location) {
         final int x = location.getBlockX();
         final double y = location.getBlockY();
         final int z = location.getBlockZ();
-        for (int i = 0; i < Settings.getLightningCount(); i++) {
-            double xToStrike;
-            double zToStrike;
-            if (this.random.nextBoolean()) {
-                xToStrike = x + this.random.nextInt(6);
-            } else {
-                xToStrike = x - this.random.nextInt(6);
+        this.effects.add(Settings.getLightningCount(), Settings.getEffectSpread(), new EffectScheduler.Step() {
+            @Override
+            public void run(int index) {
+                final Random random = VanishManager.this.random;
+                double xToStrike;
+                double zToStrike;
+                if (random.nextBoolean()) {
+                    xToStrike = x + random.nextInt(6);
+                } else {
+                    xToStrike = x - random.nextInt(6);
+                }
+                if (random.nextBoolean()) {
+                    zToStrike = z + random.nextInt(6);
+                } else {
+                    zToStrike = z - random.nextInt(6);
+                }
+                final Location toStrike = new Location(location.getWorld(), xToStrike, y, zToStrike);
+                location.getWorld().strikeLightningEffect(toStrike);
             }
-            if (this.random.nextBoolean()) {
-                zToStrike = z + this.random.nextInt(6);
-            } else {
-                zToStrike = z - this.random.nextInt(6);
+        });
+    }
+
+    private void effectSmoke(final Location location, final List<Player> viewers) {
+        this.effects.add(10, Settings.getEffectSpread(), new EffectScheduler.Step() {
+            @Override
+            public void run(int index) {
+                final int data = VanishManager.this.random.nextInt(9);
+                for (final Player viewer : viewers) {
+                    if (viewer.isOnline()) {
+                        viewer.playEffect(location, Effect.SMOKE, data);
+                    }
+                }
             }
-            final Location toStrike = new Location(location.getWorld(), xToStrike, y, zToStrike);
-            location.getWorld().strikeLightningEffect(toStrike);
-        }
+        });
     }
 
-    private void effectSmoke(Location location) {
-        for (int i = 0; i < 10; i++) {
-            location.getWorld().playEffect(location, Effect.SMOKE, this.random.nextInt(9));
+    private ProtocolLibHook packetHook() {
+        final Hook hook = this.plugin.getHookManager().getHook(HookType.ProtocolLib);
+        if ((hook instanceof ProtocolLibHook) && ((ProtocolLibHook) hook).isHooked()) {
+            return (ProtocolLibHook) hook;
         }
+        return null;
     }
 
-    private void hideVanished(Player player) {
-        for (final Player otherPlayer : this.plugin.getServer().getOnlinePlayers()) {
-            if (!player.equals(otherPlayer) && this.isVanished(otherPlayer) && player.canSee(otherPlayer)) {
-                player.hidePlayer(otherPlayer);
+    private List<Player> effectViewers(Player player) {
+        final Location location = player.getLocation();
+        final List<Player> viewers = new ArrayList<Player>();
+        for (final Player viewer : player.getWorld().getPlayers()) {
+            // Those who can see vanished players never see them disappear
+            if ((viewer.getLocation().distanceSquared(location) <= (VanishManager.EFFECT_RANGE * VanishManager.EFFECT_RANGE)) && ((viewer == player) || !VanishPerms.canSeeAll(viewer))) {
+                viewers.add(viewer);
             }
         }
+        return viewers;
     }
 
-    private void removeVanished(String name) {
-        this.vanishedPlayerNames.remove(name);
+    private void addVanished(String name) {
+        final VanishedSnapshot current = this.vanished;
+        if (!current.names.contains(name)) {
+            this.vanished = new VanishedSnapshot(ImmutableSet.<String> builder().addAll(current.names).add(name).build(), current.version + 1);
+            this.updateCounts();
+        }
     }
 
-    private void showVanished(Player player) {
-        for (final Player otherPlayer : this.plugin.getServer().getOnlinePlayers()) {
-            if (this.isVanished(otherPlayer) && !player.canSee(otherPlayer)) {
-                this.showPlayer.add(new ShowPlayerEntry(player, otherPlayer));
+    private void removeVanished(String name) {
+        final VanishedSnapshot current = this.vanished;
+        if (current.names.contains(name)) {
+            final ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            for (final String vanishedName : current.names) {
+                if (!vanishedName.equals(name)) {
+                    builder.add(vanishedName);
+                }
             }
+            this.vanished = new VanishedSnapshot(builder.build(), current.version + 1);
+            this.updateCounts();
         }
     }
 
     void onPluginDisable() {
+        this.disabled = true;
+        this.failAsyncToggles();
+        this.transactionDepth = 0;
+        this.transactionPlayers.clear();
+        this.commitToggles();
         for (final Player player : this.plugin.getServer().getOnlinePlayers()) {
-            for (final Player player2 : this.plugin.getServer().getOnlinePlayers()) {
-                if ((player != null) && (player2 != null) && !player.equals(player2)) {
-                    player.showPlayer(player2);
+            player.removeMetadata("vanished", this.plugin);
+        }
+        for (final VanishPlayerState state : this.states.values()) {
+            state.resetSleepingIgnored();
+        }
+        this.states.clear();
+        this.recalculations.clear();
+        this.deferred.clear();
+        this.joinBatch.clear();
+        this.retargeter.clear();
+        this.effects.clear();
+        this.userStore.flush();
+        // Queued shows have already cleared their matrix bits, so they must go out now
+        this.scheduler.flush();
+        boolean persisted = false;
+        if (Settings.getPersistVanished()) {
+            // Restored players who never rejoined are forgotten
+            final Set<String> names = new HashSet<String>();
+            for (final String name : this.vanished.names) {
+                names.add(name.toLowerCase());
+            }
+            try {
+                VanishStateFile.write(new File(this.plugin.getDataFolder(), "vanished.dat"), names);
+                persisted = true;
+            } catch (final IOException e) {
+                this.plugin.getLogger().log(Level.WARNING, "Could not save vanished players, revealing them", e);
+            }
+        }
+        if (!persisted) {
+            this.visibility.clear(this.immediateApplier);
+        }
+        this.effectBatsCleanup(this.bats.clear());
+        this.updateCounts();
+        this.setProtectionRegistered(false);
+    }
+
+    /**
+     * Vanishes players who were vanished when the plugin last shut down and
+     * may still vanish
+     * Players still online keep their existing hides, so nothing is resent
+     * unless their state changed. The rest vanish when they next join, until
+     * the plugin is next disabled. Anyone listed who isn't restored, as they
+     * lost permission or persistence was turned off, is shown to everyone
+     * still hiding them from before.
+     */
+    void restoreVanished() {
+        final File file = new File(this.plugin.getDataFolder(), "vanished.dat");
+        final Set<String> names;
+        try {
+            names = VanishStateFile.read(file);
+        } catch (final IOException e) {
+            this.plugin.getLogger().log(Level.WARNING, "Could not read vanished players", e);
+            file.delete();
+            return;
+        }
+        for (final Player player : this.plugin.getServer().getOnlinePlayers()) {
+            if (!names.remove(player.getName().toLowerCase())) {
+                continue;
+            }
+            if (Settings.getPersistVanished() && VanishPerms.canVanish(player)) {
+                Debuggle.log("Restoring vanish: " + player.getName());
+                final VanishPlayerState state = this.state(player);
+                state.setSleepingIgnored();
+                this.addVanished(player.getName());
+                state.getMetadata().set(true);
+                this.visibility.setVanished(player, true, VanishPerms.canSeeAll(player), this.reconcilingApplier);
+                this.plugin.getServer().getPluginManager().callEvent(new VanishStatusChangeEvent(player, true));
+                player.sendPluginMessage(this.plugin, "vanishStatus", new byte[] { 0x01 });
+                this.plugin.hooksVanish(player);
+            } else {
+                this.revealLeftover(player);
+            }
+        }
+        this.restoring.addAll(names);
+    }
+
+    /**
+     * Shows a player to everyone who may still hide them from before the
+     * last shutdown
+     * Shows are queued, so vanishing the player in the same tick cancels
+     * them and the old hides stay.
+     *
+     * @param player player no longer vanished
+     */
+    private void revealLeftover(Player player) {
+        Debuggle.log("Revealing leftover vanish: " + player.getName());
+        for (final Player viewer : this.plugin.getServer().getOnlinePlayers()) {
+            if (!viewer.equals(player)) {
+                this.applier.show(viewer, player);
+            }
+        }
+    }
+
+    private ListenableFuture<Boolean> submitAsync(AsyncToggle toggle) {
+        if (this.disabled) {
+            toggle.future.setException(new IllegalStateException("VanishNoPacket was disabled"));
+            return toggle.future;
+        }
+        this.asyncToggles.add(toggle);
+        if (this.disabled) {
+            // Disabled while queueing, the final drain may have missed it
+            this.failAsyncToggles();
+        }
+        return toggle.future;
+    }
+
+    private void failAsyncToggles() {
+        AsyncToggle toggle;
+        while ((toggle = this.asyncToggles.poll()) != null) {
+            toggle.future.setException(new IllegalStateException("VanishNoPacket was disabled"));
+        }
+    }
+
+    private boolean allowStatusCheck(Player player) {
+        final VanishPlayerState state = this.getState(player);
+        if ((state == null) || state.getStatusLimit().tryTake(Settings.getStatusRate(), Settings.getStatusBurst(), System.nanoTime())) {
+            return true;
+        }
+        this.throttledStatusChecks++;
+        return false;
+    }
+
+    private void commitToggles() {
+        if ((this.transactionDepth > 0) && (this.transactionTicks++ > 0)) {
+            // Open across a whole tick, so whoever began it never will commit it
+            this.plugin.getLogger().warning("A visibility transaction was left open, committing it");
+            this.transactionDepth = 1;
+            this.commitTransaction();
+        }
+        if (this.pendingToggles.isEmpty()) {
+            return;
+        }
+        // Toggles outside an open transaction don't wait for it
+        this.commitToggles(this.transactionDepth > 0 ? this.pendingToggles.settleExcept(this.transactionPlayers) : this.pendingToggles.settle(), this.applier, false);
+    }
+
+    private void commitToggles(Map<Player, PendingToggles.Toggle> committing, VisibilityMatrix.Applier<Player> applier, boolean batch) {
+        final Map<Player, Boolean> changes = new LinkedHashMap<Player, Boolean>();
+        for (final Map.Entry<Player, PendingToggles.Toggle> entry : committing.entrySet()) {
+            final Player vanishingPlayer = entry.getKey();
+            if (!vanishingPlayer.isOnline()) {
+                continue;
+            }
+            final boolean vanishing = entry.getValue().isVanished();
+            changes.put(vanishingPlayer, vanishing);
+            if (vanishing && VanishPerms.canNotFollow(vanishingPlayer)) {
+                this.retargeter.add(vanishingPlayer);
+            }
+            if (entry.getValue().hasEffects()) {
+                final Location oneUp = vanishingPlayer.getLocation().add(0, 1, 0);
+                final List<Player> viewers = this.effectViewers(vanishingPlayer);
+                if (VanishPerms.canEffectSmoke(vanishingPlayer)) {
+                    this.effectSmoke(vanishingPlayer.getLocation(), viewers);
+                }
+                if (VanishPerms.canEffectExplode(vanishingPlayer)) {
+                    this.effectExplosion(vanishingPlayer.getLocation(), viewers);
+                }
+                if (VanishPerms.canEffectLightning(vanishingPlayer)) {
+                    this.effectLightning(vanishingPlayer.getLocation());
+                }
+                if (VanishPerms.canEffectFlames(vanishingPlayer)) {
+                    this.effectFlames(oneUp, viewers);
+                }
+                if (VanishPerms.canEffectBats(vanishingPlayer)) {
+                    this.effectBats(oneUp, viewers);
                 }
             }
+            this.plugin.getServer().getPluginManager().callEvent(new VanishStatusChangeEvent(vanishingPlayer, vanishing));
+            vanishingPlayer.sendPluginMessage(this.plugin, "vanishStatus", vanishing ? new byte[] { 0x01 } : new byte[] { 0x00 });
+            if (!this.visibility.contains(vanishingPlayer)) {
+                this.visibility.add(vanishingPlayer, VanishPerms.canSeeAll(vanishingPlayer), applier);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
         }
-        for (final World world : this.plugin.getServer().getWorlds()) {
-            this.effectBatsCleanup(world, this.bats);
+        if (batch) {
+            this.plugin.getServer().getPluginManager().callEvent(new VanishBatchStatusChangeEvent(changes));
+        }
+        this.visibility.setVanished(changes, applier);
+        for (final Map.Entry<Player, Boolean> change : changes.entrySet()) {
+            if (committing.get(change.getKey()).isAnnounced()) {
+                this.announce(change.getKey(), change.getValue());
+            }
         }
     }
 
-    void resetSleepingIgnored(Player player) {
-        if (this.sleepIgnored.containsKey(player.getName())) {
-            player.setSleepingIgnored(this.sleepIgnored.remove(player.getName()));
+    private void announce(Player togglingPlayer, boolean vanished) {
+        final String messageBit;
+        if (vanished) {
+            Debuggle.log("LoudVanishToggle Vanishing " + togglingPlayer.getName());
+            this.plugin.hooksVanish(togglingPlayer);
+            messageBit = "vanished. Poof.";
+        } else {
+            Debuggle.log("LoudVanishToggle Revealing " + togglingPlayer.getName());
+            this.plugin.hooksUnvanish(togglingPlayer);
+            messageBit = "become visible.";
+            this.announceManipulator.vanishToggled(togglingPlayer);
+        }
+        togglingPlayer.sendMessage(ChatColor.DARK_AQUA + "You have " + messageBit);
+        this.plugin.messageStatusUpdate(ChatColor.YELLOW + togglingPlayer.getName() + " has " + messageBit, togglingPlayer);
+    }
+
+    private void drainAsyncToggles() {
+        AsyncToggle toggle;
+        while ((toggle = this.asyncToggles.poll()) != null) {
+            if (!toggle.player.isOnline()) {
+                toggle.future.setException(new IllegalStateException(toggle.player.getName() + " is not online"));
+                continue;
+            }
+            try {
+                if ((toggle.vanish == null) || (toggle.vanish != this.isVanished(toggle.player))) {
+                    if (toggle.silent) {
+                        this.toggleVanishQuiet(toggle.player, false);
+                    } else {
+                        this.toggleVanish(toggle.player);
+                    }
+                }
+                toggle.future.set(this.isVanished(toggle.player));
+            } catch (final RuntimeException e) {
+                toggle.future.setException(e);
+            }
         }
     }
 
-    void setSleepingIgnored(Player player) {
-        if (!this.sleepIgnored.containsKey(player.getName())) {
-            this.sleepIgnored.put(player.getName(), player.isSleepingIgnored());
+    private void flushJoins() {
+        if (this.joinBatch.isEmpty()) {
+            return;
+        }
+        for (final Map.Entry<Player, Boolean> entry : this.joinBatch.entrySet()) {
+            // Permission plugins may attach after the join handler cached them
+            final VanishPlayerState state = this.getState(entry.getKey());
+            if (state != null) {
+                state.recalculatePermissions();
+            }
+            entry.setValue(VanishPerms.canSeeAll(entry.getKey()));
+        }
+        this.visibility.setSeeAll(this.joinBatch, this.applier);
+        this.joinBatch.clear();
+    }
+
+    private void recalculateQueued() {
+        for (int i = 0; (i < VanishManager.RECALCULATIONS_PER_TICK) && !this.recalculations.isEmpty(); i++) {
+            final VanishPlayerState state = this.recalculations.poll();
+            if (this.states.get(state.getUniqueId()) == state) {
+                state.recalculatePermissions();
+                this.resetSeeing(state.getPlayer());
+            }
+        }
+    }
+
+    private void runDeferred() {
+        final long deadline = System.nanoTime() + VanishManager.DEFERRED_NANOS_PER_TICK;
+        Runnable task;
+        while ((task = this.deferred.poll()) != null) {
+            try {
+                task.run();
+            } catch (final Exception e) {
+                this.plugin.getLogger().log(Level.SEVERE, "Deferred task failed", e);
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+    }
+
+    private void updateCounts() {
+        this.vanishedCount = this.vanished.names.size();
+        this.batCount = this.bats.size();
+        this.idle = (this.vanishedCount == 0) && (this.batCount == 0);
+        this.setProtectionRegistered(!this.idle);
+    }
+
+    private void setProtectionRegistered(boolean register) {
+        if (this.protectionRegistered == register) {
+            return;
+        }
+        this.protectionRegistered = register;
+        for (final Listener listener : this.protection) {
+            if (register) {
+                this.plugin.getServer().getPluginManager().registerEvents(listener, this.plugin);
+            } else {
+                HandlerList.unregisterAll(listener);
+            }
+        }
+        Debuggle.log((register ? "Registered" : "Unregistered") + " protection listeners");
+    }
+
+    VanishUserStore getUserStore() {
+        return this.userStore;
+    }
+
+    void saveToggles(Player player, VanishUser user) {
+        this.userStore.put(player.getName(), user.getOverrideMask(), user.getOverrideValues());
+    }
+
+    void userCacheMiss() {
+        this.userCacheMisses.incrementAndGet();
+    }
+
+    private VanishPlayerState state(Player player) {
+        final VanishPlayerState state = this.states.get(player.getUniqueId());
+        if (state != null) {
+            return state;
         }
-        player.setSleepingIgnored(true);
+        final VanishPlayerState created = new VanishPlayerState(this, this.plugin, player);
+        final VanishPlayerState existing = this.states.putIfAbsent(player.getUniqueId(), created);
+        return existing == null ? created : existing;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,37 @@
+package org.kitteh.vanish;
+
+import org.bukkit.metadata.MetadataValueAdapter;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * The "vanished" metadata value attached to each player.
+ * Updated by the VanishManager whenever the player's state changes, so
+ * reading it is a single field read.
+ */
+final class VanishMetadataValue extends MetadataValueAdapter {
+    private volatile boolean vanished;
+
+    VanishMetadataValue(Plugin plugin, boolean vanished) {
+        super(plugin);
+        this.vanished = vanished;
+    }
+
+    @Override
+    public boolean asBoolean() {
+        return this.vanished;
+    }
+
+    @Override
+    public void invalidate() {
+        // Always current, nothing to invalidate
+    }
+
+    @Override
+    public Object value() {
+        return this.vanished ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    void set(boolean vanished) {
+        this.vanished = vanished;
+    }
+}
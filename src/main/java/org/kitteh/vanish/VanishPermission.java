@@ -0,0 +1,80 @@
+package org.kitteh.vanish;
+
+/**
+ * Every permission node VanishPerms checks for a player.
+ * Each node owns one bit of a VanishUser's permission mask.
+ * Masks are saved to disk, so new permissions must be added at the end.
+ */
+public enum VanishPermission {
+    AdminAlerts("vanish.adminalerts"),
+    EffectBats("vanish.effects.bats"),
+    EffectExplode("vanish.effects.explode"),
+    EffectFlames("vanish.effects.flames"),
+    EffectLightning("vanish.effects.lightning"),
+    EffectSmoke("vanish.effects.smoke"),
+    FakeAnnounce("vanish.fakeannounce"),
+    JoinVanished("vanish.joinvanished"),
+    JoinWithoutAnnounce("vanish.joinwithoutannounce"),
+    List("vanish.list"),
+    NoChat("vanish.nochat"),
+    NoFollow("vanish.nofollow"),
+    NoHunger("vanish.nohunger"),
+    NoInteract("vanish.nointeract"),
+    NoPickup("vanish.nopickup"),
+    NoTrample("vanish.notrample"),
+    PermTestOther("vanish.permtest.other"),
+    PermTestSelf("vanish.permtest.self"),
+    PreventIncomingDamage("vanish.preventincomingdamage"),
+    PreventOutgoingDamage("vanish.preventoutgoingdamage"),
+    Reload("vanish.reload"),
+    See("vanish.see"),
+    SilentChests("vanish.silentchests"),
+    SilentQuit("vanish.silentquit"),
+    SpoutStatus("vanish.spout.status"),
+    Stats("vanish.stats"),
+    StatusUpdates("vanish.statusupdates"),
+    ToggleDamageIn("vanish.toggle.damagein"),
+    ToggleDamageOut("vanish.toggle.damageout"),
+    ToggleEffectBats("vanish.effects.toggle.bats"),
+    ToggleEffectExplode("vanish.effects.toggle.explode"),
+    ToggleEffectFlames("vanish.effects.toggle.flames"),
+    ToggleEffectLightning("vanish.effects.toggle.lightning"),
+    ToggleEffectSmoke("vanish.effects.toggle.smoke"),
+    ToggleNoChat("vanish.toggle.nochat"),
+    ToggleNoFollow("vanish.toggle.nofollow"),
+    ToggleNoHunger("vanish.toggle.nohunger"),
+    ToggleNoInteract("vanish.toggle.nointeract"),
+    ToggleNoPickup("vanish.toggle.nopickup"),
+    ToggleSee("vanish.toggle.see"),
+    ToggleSilentChests("vanish.toggle.silentchests"),
+    Vanish("vanish.vanish"),
+    VanishOff("vanish.vanish.off"),
+    VanishOn("vanish.vanish.on"),
+    PreVanish("vanish.prevanish");
+
+    private final String node;
+    private final long mask;
+
+    VanishPermission(String node) {
+        this.node = node;
+        this.mask = 1L << this.ordinal();
+    }
+
+    /**
+     * Gets the bit this permission occupies in a permission mask
+     *
+     * @return the mask bit
+     */
+    public long getMask() {
+        return this.mask;
+    }
+
+    /**
+     * Gets the permission node
+     *
+     * @return the node
+     */
+    public String getNode() {
+        return this.node;
+    }
+}
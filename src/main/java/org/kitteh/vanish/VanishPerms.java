@@ -1,253 +1,291 @@
 package org.kitteh.vanish;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
 public final class VanishPerms {
-    private static Map<String, VanishUser> users = Collections.synchronizedMap(new HashMap<String, VanishUser>());
+    private static volatile VanishManager manager = null;
 
     public static boolean blockIncomingDamage(Player player) {
-        return VanishPerms.getUser(player).getPreventIncomingDamage();
+        return VanishPerms.has(player, VanishPermission.PreventIncomingDamage);
     }
 
     public static boolean blockOutgoingDamage(Player player) {
-        return VanishPerms.getUser(player).getPreventOutgoingDamage();
+        return VanishPerms.has(player, VanishPermission.PreventOutgoingDamage);
     }
 
     public static boolean canEffectBats(Player player) {
-        return VanishPerms.getUser(player).getEffectBats();
+        return VanishPerms.has(player, VanishPermission.EffectBats);
     }
 
     public static boolean canEffectExplode(Player player) {
-        return VanishPerms.getUser(player).getEffectExplode();
+        return VanishPerms.has(player, VanishPermission.EffectExplode);
     }
 
     public static boolean canEffectFlames(Player player) {
-        return VanishPerms.getUser(player).getEffectFlames();
+        return VanishPerms.has(player, VanishPermission.EffectFlames);
     }
 
     public static boolean canEffectLightning(Player player) {
-        return VanishPerms.getUser(player).getEffectLightning();
+        return VanishPerms.has(player, VanishPermission.EffectLightning);
     }
 
     public static boolean canEffectSmoke(Player player) {
-        return VanishPerms.getUser(player).getEffectSmoke();
+        return VanishPerms.has(player, VanishPermission.EffectSmoke);
     }
 
     public static boolean canFakeAnnounce(Player player) {
-        return player.hasPermission("vanish.fakeannounce");
+        return VanishPerms.has(player, VanishPermission.FakeAnnounce);
     }
 
     public static boolean canList(CommandSender sender) {
-        return sender.hasPermission("vanish.list");
+        return VanishPerms.has(sender, VanishPermission.List);
     }
 
     public static boolean canNotChat(Player player) {
-        return VanishPerms.getUser(player).getNoChat();
+        return VanishPerms.has(player, VanishPermission.NoChat);
     }
 
     public static boolean canNotFollow(Player player) {
-        return VanishPerms.getUser(player).getNoFollow();
+        return VanishPerms.has(player, VanishPermission.NoFollow);
     }
 
     public static boolean canNotHunger(Player player) {
-        return VanishPerms.getUser(player).getNoHunger();
+        return VanishPerms.has(player, VanishPermission.NoHunger);
     }
 
     public static boolean canNotInteract(Player player) {
-        return VanishPerms.getUser(player).getNoInteract();
+        return VanishPerms.has(player, VanishPermission.NoInteract);
     }
 
     public static boolean canNotPickUp(Player player) {
-        return VanishPerms.getUser(player).getNoPickup();
+        return VanishPerms.has(player, VanishPermission.NoPickup);
     }
 
     public static boolean canNotTrample(Player player) {
-        return player.hasPermission("vanish.notrample");
+        return VanishPerms.has(player, VanishPermission.NoTrample);
     }
 
     public static boolean canReadChestsSilently(Player player) {
-        return VanishPerms.getUser(player).getReadChestsSilently();
+        return VanishPerms.has(player, VanishPermission.SilentChests);
+    }
+
+    public static boolean canPreVanish(CommandSender sender) {
+        return VanishPerms.has(sender, VanishPermission.PreVanish);
     }
 
     public static boolean canReceiveAdminAlerts(Player player) {
-        return player.hasPermission("vanish.adminalerts");
+        return VanishPerms.has(player, VanishPermission.AdminAlerts);
     }
 
     public static boolean canReload(CommandSender sender) {
-        return sender.hasPermission("vanish.reload");
+        return VanishPerms.has(sender, VanishPermission.Reload);
     }
 
     public static boolean canSeeAll(Player player) {
-        return VanishPerms.getUser(player).getSeeAll();
+        return VanishPerms.has(player, VanishPermission.See);
     }
 
     public static boolean canSeeSpoutStatus(Player player) {
-        return player.hasPermission("vanish.spout.status");
+        return VanishPerms.has(player, VanishPermission.SpoutStatus);
+    }
+
+    public static boolean canSeeStats(CommandSender sender) {
+        return VanishPerms.has(sender, VanishPermission.Stats);
     }
 
     public static boolean canSeeStatusUpdates(Player player) {
-        return player.hasPermission("vanish.statusupdates");
+        return VanishPerms.has(player, VanishPermission.StatusUpdates);
     }
 
     public static boolean canToggleDamageIn(Player player) {
-        return player.hasPermission("vanish.toggle.damagein");
+        return VanishPerms.has(player, VanishPermission.ToggleDamageIn);
     }
 
     public static boolean canToggleDamageOut(Player player) {
-        return player.hasPermission("vanish.toggle.damageout");
+        return VanishPerms.has(player, VanishPermission.ToggleDamageOut);
     }
 
     public static boolean canToggleEffectBats(Player player) {
-        return player.hasPermission("vanish.effects.toggle.bats");
+        return VanishPerms.has(player, VanishPermission.ToggleEffectBats);
     }
 
     public static boolean canToggleEffectExplode(Player player) {
-        return player.hasPermission("vanish.effects.toggle.explode");
+        return VanishPerms.has(player, VanishPermission.ToggleEffectExplode);
     }
 
     public static boolean canToggleEffectFlames(Player player) {
-        return player.hasPermission("vanish.effects.toggle.flames");
+        return VanishPerms.has(player, VanishPermission.ToggleEffectFlames);
     }
 
     public static boolean canToggleEffectLightning(Player player) {
-        return player.hasPermission("vanish.effects.toggle.lightning");
+        return VanishPerms.has(player, VanishPermission.ToggleEffectLightning);
     }
 
     public static boolean canToggleNoChat(Player player) {
-        return player.hasPermission("vanish.toggle.nochat");
+        return VanishPerms.has(player, VanishPermission.ToggleNoChat);
     }
 
     public static boolean canToggleNoFollow(Player player) {
-        return player.hasPermission("vanish.toggle.nofollow");
+        return VanishPerms.has(player, VanishPermission.ToggleNoFollow);
     }
 
     public static boolean canToggleNoHunger(Player player) {
-        return player.hasPermission("vanish.toggle.nohunger");
+        return VanishPerms.has(player, VanishPermission.ToggleNoHunger);
     }
 
     public static boolean canToggleNoInteract(Player player) {
-        return player.hasPermission("vanish.toggle.nointeract");
+        return VanishPerms.has(player, VanishPermission.ToggleNoInteract);
     }
 
     public static boolean canToggleNoPickup(Player player) {
-        return player.hasPermission("vanish.toggle.nopickup");
+        return VanishPerms.has(player, VanishPermission.ToggleNoPickup);
     }
 
     public static boolean canToggleSee(Player player) {
-        return player.hasPermission("vanish.toggle.see");
+        return VanishPerms.has(player, VanishPermission.ToggleSee);
     }
 
     public static boolean canToggleSilentChestReads(Player player) {
-        return player.hasPermission("vanish.toggle.silentchests");
+        return VanishPerms.has(player, VanishPermission.ToggleSilentChests);
     }
 
     public static boolean canToggleSmoke(Player player) {
-        return player.hasPermission("vanish.effects.toggle.smoke");
+        return VanishPerms.has(player, VanishPermission.ToggleEffectSmoke);
     }
 
     public static boolean canVanish(Player player) {
-        return player.hasPermission("vanish.vanish");
+        return VanishPerms.has(player, VanishPermission.Vanish);
     }
 
     public static boolean canVanishOff(Player player) {
-        return player.hasPermission("vanish.vanish.off");
+        return VanishPerms.has(player, VanishPermission.VanishOff);
     }
 
     public static boolean canVanishOn(Player player) {
-        return player.hasPermission("vanish.vanish.on");
+        return VanishPerms.has(player, VanishPermission.VanishOn);
     }
 
     public static boolean joinVanished(Player player) {
-        return player.hasPermission("vanish.joinvanished");
+        return VanishPerms.has(player, VanishPermission.JoinVanished);
     }
 
     public static boolean joinWithoutAnnounce(Player player) {
-        return player.hasPermission("vanish.joinwithoutannounce");
+        return VanishPerms.has(player, VanishPermission.JoinWithoutAnnounce);
     }
 
     public static boolean permTestOther(Player player) {
-        return player.hasPermission("vanish.permtest.other");
+        return VanishPerms.has(player, VanishPermission.PermTestOther);
     }
 
     public static boolean permTestSelf(Player player) {
-        return player.hasPermission("vanish.permtest.self");
+        return VanishPerms.has(player, VanishPermission.PermTestSelf);
     }
 
     public static boolean silentQuit(Player player) {
-        return player.hasPermission("vanish.silentquit");
+        return VanishPerms.has(player, VanishPermission.SilentQuit);
     }
 
     public static boolean toggleDamageIn(Player player) {
-        return VanishPerms.getUser(player).toggleIncomingDamage();
+        return VanishPerms.toggle(player, VanishPermission.PreventIncomingDamage);
     }
 
     public static boolean toggleDamageOut(Player player) {
-        return VanishPerms.getUser(player).toggleOutgoingDamage();
+        return VanishPerms.toggle(player, VanishPermission.PreventOutgoingDamage);
     }
 
     public static boolean toggleEffectBats(Player player) {
-        return VanishPerms.getUser(player).toggleEffectBats();
+        return VanishPerms.toggle(player, VanishPermission.EffectBats);
     }
 
     public static boolean toggleEffectExplode(Player player) {
-        return VanishPerms.getUser(player).toggleEffectExplode();
+        return VanishPerms.toggle(player, VanishPermission.EffectExplode);
     }
 
     public static boolean toggleEffectFlames(Player player) {
-        return VanishPerms.getUser(player).toggleEffectFlames();
+        return VanishPerms.toggle(player, VanishPermission.EffectFlames);
     }
 
     public static boolean toggleEffectLightning(Player player) {
-        return VanishPerms.getUser(player).toggleEffectLightning();
+        return VanishPerms.toggle(player, VanishPermission.EffectLightning);
     }
 
     public static boolean toggleEffectSmoke(Player player) {
-        return VanishPerms.getUser(player).toggleEffectSmoke();
+        return VanishPerms.toggle(player, VanishPermission.EffectSmoke);
     }
 
     public static boolean toggleNoChat(Player player) {
-        return VanishPerms.getUser(player).toggleNoChat();
+        return VanishPerms.toggle(player, VanishPermission.NoChat);
     }
 
     public static boolean toggleNoFollow(Player player) {
-        return VanishPerms.getUser(player).toggleNoFollow();
+        return VanishPerms.toggle(player, VanishPermission.NoFollow);
     }
 
     public static boolean toggleNoHunger(Player player) {
-        return VanishPerms.getUser(player).toggleNoHunger();
+        return VanishPerms.toggle(player, VanishPermission.NoHunger);
     }
 
     public static boolean toggleNoInteract(Player player) {
-        return VanishPerms.getUser(player).toggleNoInteract();
+        return VanishPerms.toggle(player, VanishPermission.NoInteract);
     }
 
     public static boolean toggleNoPickup(Player player) {
-        return VanishPerms.getUser(player).toggleNoPickup();
+        return VanishPerms.toggle(player, VanishPermission.NoPickup);
     }
 
     public static boolean toggleSeeAll(Player player) {
-        return VanishPerms.getUser(player).toggleSeeAll();
+        return VanishPerms.toggle(player, VanishPermission.See);
     }
 
     public static boolean toggleSilentChestReads(Player player) {
-        return VanishPerms.getUser(player).toggleSilentChestReads();
+        return VanishPerms.toggle(player, VanishPermission.SilentChests);
     }
 
+    /**
+     * Player data is now dropped by VanishManager on quit
+     *
+     * @param player the player who quit
+     * @deprecated does nothing
+     */
+    @Deprecated
     public static void userQuit(Player player) {
-        VanishPerms.users.remove(player.getName());
+    }
+
+    static void setManager(VanishManager manager) {
+        VanishPerms.manager = manager;
     }
 
     private static VanishUser getUser(Player player) {
-        VanishUser user = VanishPerms.users.get(player.getName());
-        if (user == null) {
-            user = new VanishUser(player);
-            VanishPerms.users.put(player.getName(), user);
+        final VanishPlayerState state = VanishPerms.getState(player);
+        if (state == null) {
+            return new VanishUser(player);
+        }
+        return state.getUser();
+    }
+
+    private static VanishPlayerState getState(Player player) {
+        final VanishManager manager = VanishPerms.manager;
+        return manager == null ? null : manager.getState(player);
+    }
+
+    private static boolean toggle(Player player, VanishPermission permission) {
+        final VanishUser user = VanishPerms.getUser(player);
+        final boolean value = user.toggle(permission);
+        final VanishManager manager = VanishPerms.manager;
+        if (manager != null) {
+            manager.saveToggles(player, user);
+        }
+        return value;
+    }
+
+    private static boolean has(CommandSender sender, VanishPermission permission) {
+        if (sender instanceof Player) {
+            final VanishPlayerState state = VanishPerms.getState((Player) sender);
+            if (state != null) {
+                return state.getUser().has(permission);
+            }
         }
-        return user;
+        return sender.hasPermission(permission.getNode());
     }
-}
\ No newline at end of file
+}
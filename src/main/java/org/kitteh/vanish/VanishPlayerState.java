@@ -0,0 +1,158 @@
+package org.kitteh.vanish;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Everything VanishNoPacket tracks about one online player.
+ * Created when the player joins and dropped when they quit.
+ */
+public final class VanishPlayerState {
+    private final VanishManager manager;
+    private final Player player;
+    private final UUID uniqueId;
+    private final VanishMetadataValue metadata;
+    private final AtomicReference<VanishUser> user = new AtomicReference<VanishUser>();
+    private boolean recalculationQueued = false;
+    private Boolean sleepIgnored;
+    private volatile boolean fakeChestOpen;
+    private Boolean fakeOnline;
+    private boolean delayedAnnounce;
+    private final TokenBucket statusLimit = new TokenBucket();
+    private final TokenBucket toggleLimit = new TokenBucket();
+
+    VanishPlayerState(VanishManager manager, VanishPlugin plugin, Player player) {
+        this.manager = manager;
+        this.player = player;
+        this.uniqueId = player.getUniqueId();
+        this.metadata = new VanishMetadataValue(plugin, false);
+    }
+
+    /**
+     * Gets the player this state belongs to
+     *
+     * @return the player
+     */
+    public Player getPlayer() {
+        return this.player;
+    }
+
+    /**
+     * Gets the player's unique ID
+     *
+     * @return unique ID
+     */
+    public UUID getUniqueId() {
+        return this.uniqueId;
+    }
+
+    /**
+     * Gets the player's permissions and toggles
+     *
+     * @return the player's VanishUser
+     */
+    public VanishUser getUser() {
+        final VanishUser user = this.user.get();
+        if (user != null) {
+            return user;
+        }
+        this.manager.userCacheMiss();
+        final VanishUser created = new VanishUser(this.player);
+        final VanishUserStore.Overrides overrides = this.manager.getUserStore().get(this.player.getName());
+        if (overrides != null) {
+            created.setOverrides(overrides.getMask(), overrides.getValues());
+        }
+        this.user.compareAndSet(null, created);
+        return this.user.get();
+    }
+
+    /**
+     * Gets if the player is using a fake chest
+     *
+     * @return true if a fake chest is open
+     */
+    public boolean isFakeChestOpen() {
+        return this.fakeChestOpen;
+    }
+
+    /**
+     * Gets if the player is vanished
+     *
+     * @return true if vanished
+     */
+    public boolean isVanished() {
+        return this.metadata.asBoolean();
+    }
+
+    Boolean getFakeOnline() {
+        return this.fakeOnline;
+    }
+
+    VanishMetadataValue getMetadata() {
+        return this.metadata;
+    }
+
+    void applyStoredOverrides(VanishUserStore store) {
+        final VanishUser user = this.user.get();
+        final VanishUserStore.Overrides overrides = store.get(this.player.getName());
+        if ((user != null) && (overrides != null) && (user.getOverrideMask() == 0)) {
+            user.setOverrides(overrides.getMask(), overrides.getValues());
+        }
+    }
+
+    TokenBucket getStatusLimit() {
+        return this.statusLimit;
+    }
+
+    TokenBucket getToggleLimit() {
+        return this.toggleLimit;
+    }
+
+    boolean hasDelayedAnnounce() {
+        return this.delayedAnnounce;
+    }
+
+    void setDelayedAnnounce(boolean delayedAnnounce) {
+        this.delayedAnnounce = delayedAnnounce;
+    }
+
+    void setFakeChestOpen(boolean fakeChestOpen) {
+        this.fakeChestOpen = fakeChestOpen;
+    }
+
+    void setFakeOnline(Boolean fakeOnline) {
+        this.fakeOnline = fakeOnline;
+    }
+
+    void setRecalculationQueued(boolean recalculationQueued) {
+        this.recalculationQueued = recalculationQueued;
+    }
+
+    void setSleepingIgnored() {
+        if (this.sleepIgnored == null) {
+            this.sleepIgnored = this.player.isSleepingIgnored();
+        }
+        this.player.setSleepingIgnored(true);
+    }
+
+    boolean isRecalculationQueued() {
+        return this.recalculationQueued;
+    }
+
+    void recalculatePermissions() {
+        this.recalculationQueued = false;
+        final VanishUser user = this.user.get();
+        if ((user != null) && user.recalculate()) {
+            this.manager.saveToggles(this.player, user);
+        }
+    }
+
+    void resetSleepingIgnored() {
+        if (this.sleepIgnored != null) {
+            this.player.setSleepingIgnored(this.sleepIgnored);
+            this.sleepIgnored = null;
+        }
+    }
+}
@@ -3,21 +3,18 @@ package org.kitteh.vanish;
 import org.bukkit.ChatColor;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
-import org.bukkit.metadata.LazyMetadataValue;
-import org.bukkit.metadata.LazyMetadataValue.CacheStrategy;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 import org.kitteh.vanish.hooks.HookManager;
 import org.kitteh.vanish.hooks.HookManager.HookType;
-import org.kitteh.vanish.listeners.ListenEntity;
 import org.kitteh.vanish.listeners.ListenInventory;
 import org.kitteh.vanish.listeners.ListenPlayerJoin;
 import org.kitteh.vanish.listeners.ListenPlayerMessages;
-import org.kitteh.vanish.listeners.ListenPlayerOther;
+import org.kitteh.vanish.listeners.ListenPlayerPreLogin;
+import org.kitteh.vanish.listeners.ListenPlayerState;
 import org.kitteh.vanish.listeners.ListenServerPing;
-import org.kitteh.vanish.listeners.ListenToYourHeart;
 import org.kitteh.vanish.listeners.TagAPIListener;
 import org.kitteh.vanish.metrics.MetricsOverlord;
 
@@ -28,7 +25,6 @@ import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashSet;
 
 public final class VanishPlugin extends JavaPlugin {
     final class UpdateCheck implements Runnable {
@@ -106,32 +102,70 @@ public final class VanishPlugin extends JavaPlugin {
         }
     }
 
-    private final HashSet<String> haveInventoriesOpen = new HashSet<String>();
     private String latestVersion = null;
     private boolean versionDiff = false;
     private VanishManager manager;
     private final HookManager hookManager = new HookManager(this);
 
+    /**
+     * Informs VNP that a user has closed their fake chest
+     *
+     * @param player the user
+     */
+    public void chestFakeClose(Player player) {
+        final VanishPlayerState state = this.manager.getState(player);
+        if (state != null) {
+            state.setFakeChestOpen(false);
+        }
+    }
+
     /**
      * Informs VNP that a user has closed their fake chest
      *
      * @param name user's name
+     * @deprecated use {@link #chestFakeClose(Player)}
      */
+    @Deprecated
     public void chestFakeClose(String name) {
-        synchronized (this.haveInventoriesOpen) {
-            this.haveInventoriesOpen.remove(name);
+        final Player player = this.getServer().getPlayerExact(name);
+        if (player != null) {
+            this.chestFakeClose(player);
         }
     }
 
+    /**
+     * Queries if a user is currently using a fake chest
+     *
+     * @param player the user
+     * @return true if currently using a fake chest
+     */
+    public boolean chestFakeInUse(Player player) {
+        final VanishPlayerState state = this.manager.getState(player);
+        return (state != null) && state.isFakeChestOpen();
+    }
+
     /**
      * Queries if a user is currently using a fake chest
      *
      * @param name the user's name
      * @return true if currently using a fake chest
+     * @deprecated use {@link #chestFakeInUse(Player)}
      */
+    @Deprecated
     public boolean chestFakeInUse(String name) {
-        synchronized (this.haveInventoriesOpen) {
-            return this.haveInventoriesOpen.contains(name);
+        final Player player = this.getServer().getPlayerExact(name);
+        return (player != null) && this.chestFakeInUse(player);
+    }
+
+    /**
+     * Informs VNP that a user has opened their fake chest
+     *
+     * @param player the user
+     */
+    public void chestFakeOpen(Player player) {
+        final VanishPlayerState state = this.manager.getState(player);
+        if (state != null) {
+            state.setFakeChestOpen(true);
         }
     }
 
@@ -139,10 +173,13 @@ public final class VanishPlugin extends JavaPlugin {
      * Informs VNP that a user has opened their fake chest
      *
      * @param name user's name
+     * @deprecated use {@link #chestFakeOpen(Player)}
      */
+    @Deprecated
     public void chestFakeOpen(String name) {
-        synchronized (this.haveInventoriesOpen) {
-            this.haveInventoriesOpen.add(name);
+        final Player player = this.getServer().getPlayerExact(name);
+        if (player != null) {
+            this.chestFakeOpen(player);
         }
     }
 
@@ -252,7 +289,7 @@ public final class VanishPlugin extends JavaPlugin {
         this.setInstance(null);
         Debuggle.nah();
         for (final Player player : VanishPlugin.this.getServer().getOnlinePlayers()) {
-            if (player != null) {
+            if ((player != null) && !Settings.getPersistVanished()) {
                 if (this.manager.isVanished(player)) {
                     player.sendMessage(ChatColor.DARK_AQUA + "[Vanish] You have been forced visible by a reload.");
                 }
@@ -260,6 +297,7 @@ public final class VanishPlugin extends JavaPlugin {
         }
         this.hookManager.onDisable();
         this.manager.onPluginDisable();
+        VanishPerms.setManager(null);
         this.getLogger().info(this.getCurrentVersion() + " unloaded.");
     }
 
@@ -307,9 +345,9 @@ public final class VanishPlugin extends JavaPlugin {
         if (this.getConfig().getBoolean("hooks.dynmap", false)) {
             this.hookManager.getHook(HookType.Dynmap).onEnable();
         }
-        //if (this.getServer().getPluginManager().getPlugin("ProtocolLib") != null) {
-        //    this.hookManager.getHook(HookType.ProtocolLib).onEnable();
-        //}
+        if (this.getServer().getPluginManager().getPlugin("ProtocolLib") != null) {
+            this.hookManager.getHook(HookType.ProtocolLib).onEnable();
+        }
 
         final VanishPlugin self = this;
         //Post-load stuff
@@ -328,10 +366,13 @@ public final class VanishPlugin extends JavaPlugin {
         }
 
         this.manager = new VanishManager(this);
+        VanishPerms.setManager(this.manager);
 
         for (final Player player : this.getServer().getOnlinePlayers()) {
-            player.setMetadata("vanished", new LazyMetadataValue(this, CacheStrategy.NEVER_CACHE, new VanishCheck(this.manager, player.getName())));
+            this.manager.playerJoin(player);
+            this.manager.resetSeeing(player);
         }
+        this.manager.restoreVanished();
 
         boolean updateCheck = this.getConfig().getBoolean("checkupdates", true);
         if (firstTimeStarting) {
@@ -352,11 +393,10 @@ public final class VanishPlugin extends JavaPlugin {
         }
 
         this.getCommand("vanish").setExecutor(new VanishCommand(this));
-        this.getServer().getPluginManager().registerEvents(new ListenEntity(this), this);
         this.getServer().getPluginManager().registerEvents(new ListenPlayerMessages(this), this);
+        this.getServer().getPluginManager().registerEvents(new ListenPlayerPreLogin(this), this);
         this.getServer().getPluginManager().registerEvents(new ListenPlayerJoin(this), this);
-        this.getServer().getPluginManager().registerEvents(new ListenPlayerOther(this), this);
-        this.getServer().getPluginManager().registerEvents(new ListenToYourHeart(this), this);
+        this.getServer().getPluginManager().registerEvents(new ListenPlayerState(this), this);
         this.getServer().getPluginManager().registerEvents(new ListenInventory(this), this);
         this.getServer().getPluginManager().registerEvents(new ListenServerPing(this.manager), this);
 
@@ -369,6 +409,7 @@ public final class VanishPlugin extends JavaPlugin {
     public void reload() {
         this.reloadConfig();
         Settings.freshStart(this);
+        this.manager.invalidatePermissions();
     }
 
     /**
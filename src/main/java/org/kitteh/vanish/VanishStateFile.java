@@ -0,0 +1,73 @@
+package org.kitteh.vanish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads and writes the names of players who were vanished when the plugin
+ * was disabled, so they stay vanished across /reload and restarts.
+ */
+final class VanishStateFile {
+    private static final int MAGIC = 0x564e5053;
+
+    /**
+     * Reads and deletes the state file
+     *
+     * @param file file to read
+     * @return lowercase names of vanished players, empty if no file
+     * @throws IOException if the file could not be read
+     */
+    static Set<String> read(File file) throws IOException {
+        final Set<String> names = new HashSet<String>();
+        if (!file.exists()) {
+            return names;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != VanishStateFile.MAGIC) {
+                throw new IOException("Unrecognized " + file.getName());
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                names.add(in.readUTF().toLowerCase());
+            }
+        } finally {
+            in.close();
+        }
+        file.delete();
+        return names;
+    }
+
+    /**
+     * Writes the state file
+     *
+     * @param file file to write
+     * @param names names of vanished players
+     * @throws IOException if the file could not be written
+     */
+    static void write(File file, Collection<String> names) throws IOException {
+        file.getParentFile().mkdirs();
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(VanishStateFile.MAGIC);
+            out.writeInt(names.size());
+            for (final String name : names) {
+                out.writeUTF(name);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private VanishStateFile() {
+    }
+}
@@ -2,162 +2,204 @@ package org.kitteh.vanish;
 
 import org.bukkit.entity.Player;
 
+/**
+ * A player's VanishNoPacket permissions, packed into a bitmask.
+ * Toggles are stored as separate override bits so they survive the
+ * permissions being recalculated. An override only ever records a value
+ * different from the one granted, so once the grant changes to match it,
+ * the override is dropped and the new grant applies.
+ */
 public final class VanishUser {
-    private boolean seeAll;
-    private boolean noPickup;
-    private boolean noFollow;
-    private boolean preventIncomingDamage;
-    private boolean preventOutgoingDamage;
-    private boolean noInteract;
-    private boolean noHunger;
-    private boolean noChat;
-    private boolean silentChestReads;
-    private boolean smoke;
-    private boolean flames;
-    private boolean explode;
-    private boolean lightning;
-    private boolean bats;
+    private final Player player;
+    private volatile long granted;
+    private volatile long overrideMask = 0;
+    private volatile long overrideValues = 0;
 
     public VanishUser(Player player) {
-        this.seeAll = player.hasPermission("vanish.see");
-        this.noPickup = player.hasPermission("vanish.nopickup");
-        this.noFollow = player.hasPermission("vanish.nofollow");
-        this.preventIncomingDamage = player.hasPermission("vanish.preventincomingdamage");
-        this.preventOutgoingDamage = player.hasPermission("vanish.preventoutgoingdamage");
-        this.noInteract = player.hasPermission("vanish.nointeract");
-        this.noHunger = player.hasPermission("vanish.nohunger");
-        this.noChat = player.hasPermission("vanish.nochat");
-        this.silentChestReads = player.hasPermission("vanish.silentchests");
-        this.smoke = player.hasPermission("vanish.effects.smoke");
-        this.flames = player.hasPermission("vanish.effects.flames");
-        this.explode = player.hasPermission("vanish.effects.explode");
-        this.lightning = player.hasPermission("vanish.effects.lightning");
-        this.bats = player.hasPermission("vanish.effects.bats");
+        this.player = player;
+        this.recalculate();
     }
 
     public boolean getEffectBats() {
-        return this.bats;
+        return this.has(VanishPermission.EffectBats);
     }
 
     public boolean getEffectExplode() {
-        return this.explode;
+        return this.has(VanishPermission.EffectExplode);
     }
 
     public boolean getEffectFlames() {
-        return this.flames;
+        return this.has(VanishPermission.EffectFlames);
     }
 
     public boolean getEffectLightning() {
-        return this.lightning;
+        return this.has(VanishPermission.EffectLightning);
     }
 
     public boolean getEffectSmoke() {
-        return this.smoke;
+        return this.has(VanishPermission.EffectSmoke);
     }
 
     public boolean getNoChat() {
-        return this.noChat;
+        return this.has(VanishPermission.NoChat);
     }
 
     public boolean getNoFollow() {
-        return this.noFollow;
+        return this.has(VanishPermission.NoFollow);
     }
 
     public boolean getNoHunger() {
-        return this.noHunger;
+        return this.has(VanishPermission.NoHunger);
     }
 
     public boolean getNoInteract() {
-        return this.noInteract;
+        return this.has(VanishPermission.NoInteract);
     }
 
     public boolean getNoPickup() {
-        return this.noPickup;
+        return this.has(VanishPermission.NoPickup);
     }
 
     public boolean getPreventIncomingDamage() {
-        return this.preventIncomingDamage;
+        return this.has(VanishPermission.PreventIncomingDamage);
     }
 
     public boolean getPreventOutgoingDamage() {
-        return this.preventOutgoingDamage;
+        return this.has(VanishPermission.PreventOutgoingDamage);
     }
 
     public boolean getReadChestsSilently() {
-        return this.silentChestReads;
+        return this.has(VanishPermission.SilentChests);
     }
 
     public boolean getSeeAll() {
-        return this.seeAll;
+        return this.has(VanishPermission.See);
+    }
+
+    /**
+     * Gets if the user has a permission, after toggles
+     *
+     * @param permission permission to check
+     * @return true if granted
+     */
+    public boolean has(VanishPermission permission) {
+        final long mask = this.overrideMask;
+        return (((this.granted & ~mask) | (this.overrideValues & mask)) & permission.getMask()) != 0;
+    }
+
+    /**
+     * Checks all permissions against the player again, keeping toggles
+     * of permissions whose grant did not change
+     *
+     * @return true if any toggles were dropped
+     */
+    public boolean recalculate() {
+        long granted = 0;
+        for (final VanishPermission permission : VanishPermission.values()) {
+            if (this.player.hasPermission(permission.getNode())) {
+                granted |= permission.getMask();
+            }
+        }
+        this.granted = granted;
+        return this.prune();
     }
 
     public boolean toggleEffectBats() {
-        this.bats = !this.bats;
-        return this.bats;
+        return this.toggle(VanishPermission.EffectBats);
     }
 
     public boolean toggleEffectExplode() {
-        this.explode = !this.explode;
-        return this.explode;
+        return this.toggle(VanishPermission.EffectExplode);
     }
 
     public boolean toggleEffectFlames() {
-        this.flames = !this.flames;
-        return this.flames;
+        return this.toggle(VanishPermission.EffectFlames);
     }
 
     public boolean toggleEffectLightning() {
-        this.lightning = !this.lightning;
-        return this.lightning;
+        return this.toggle(VanishPermission.EffectLightning);
     }
 
     public boolean toggleEffectSmoke() {
-        this.smoke = !this.smoke;
-        return this.smoke;
+        return this.toggle(VanishPermission.EffectSmoke);
     }
 
     public boolean toggleIncomingDamage() {
-        this.preventIncomingDamage = !this.preventIncomingDamage;
-        return this.preventIncomingDamage;
+        return this.toggle(VanishPermission.PreventIncomingDamage);
     }
 
     public boolean toggleNoChat() {
-        this.noChat = !this.noChat;
-        return this.noChat;
+        return this.toggle(VanishPermission.NoChat);
     }
 
     public boolean toggleNoFollow() {
-        this.noFollow = !this.noFollow;
-        return this.noFollow;
+        return this.toggle(VanishPermission.NoFollow);
     }
 
     public boolean toggleNoHunger() {
-        this.noHunger = !this.noHunger;
-        return this.noHunger;
+        return this.toggle(VanishPermission.NoHunger);
     }
 
     public boolean toggleNoInteract() {
-        this.noInteract = !this.noInteract;
-        return this.noInteract;
+        return this.toggle(VanishPermission.NoInteract);
     }
 
     public boolean toggleNoPickup() {
-        this.noPickup = !this.noPickup;
-        return this.noPickup;
+        return this.toggle(VanishPermission.NoPickup);
     }
 
     public boolean toggleOutgoingDamage() {
-        this.preventOutgoingDamage = !this.preventOutgoingDamage;
-        return this.preventOutgoingDamage;
+        return this.toggle(VanishPermission.PreventOutgoingDamage);
     }
 
     public boolean toggleSeeAll() {
-        this.seeAll = !this.seeAll;
-        return this.seeAll;
+        return this.toggle(VanishPermission.See);
     }
 
     public boolean toggleSilentChestReads() {
-        this.silentChestReads = !this.silentChestReads;
-        return this.silentChestReads;
+        return this.toggle(VanishPermission.SilentChests);
     }
-}
\ No newline at end of file
+
+    long getOverrideMask() {
+        return this.overrideMask;
+    }
+
+    long getOverrideValues() {
+        return this.overrideValues;
+    }
+
+    void setOverrides(long mask, long values) {
+        this.overrideValues = values & mask;
+        this.overrideMask = mask;
+        this.prune();
+    }
+
+    boolean toggle(VanishPermission permission) {
+        final boolean value = !this.has(permission);
+        if (value) {
+            this.overrideValues |= permission.getMask();
+        } else {
+            this.overrideValues &= ~permission.getMask();
+        }
+        this.overrideMask |= permission.getMask();
+        this.prune();
+        return value;
+    }
+
+    /**
+     * Drops overrides that match the granted value, either toggled back or
+     * granted differently since they were set
+     *
+     * @return true if any were dropped
+     */
+    private boolean prune() {
+        final long mask = this.overrideMask;
+        final long stale = mask & ~(this.granted ^ this.overrideValues);
+        if (stale == 0) {
+            return false;
+        }
+        this.overrideMask = mask & ~stale;
+        this.overrideValues &= ~stale;
+        return true;
+    }
+}
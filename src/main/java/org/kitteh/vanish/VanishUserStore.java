@@ -0,0 +1,356 @@
+package org.kitteh.vanish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the toggles players set with /vanish toggle and /vanish effects.
+ * Records are appended to a binary log and replayed on load, later records
+ * winning. Each record carries its length and a checksum, so a torn write
+ * is found on load. Records before it are kept and the log is rewritten
+ * without it. The log is also compacted on load once it holds mostly stale
+ * records.
+ * Changes are written behind on an async thread, coalesced per player.
+ * Keyed by lowercase name, as pre-login only knows the name.
+ */
+final class VanishUserStore {
+    /**
+     * A player's toggle overrides
+     */
+    static final class Overrides {
+        private final long mask;
+        private final long values;
+
+        Overrides(long mask, long values) {
+            this.mask = mask;
+            this.values = values;
+        }
+
+        long getMask() {
+            return this.mask;
+        }
+
+        long getValues() {
+            return this.values;
+        }
+    }
+
+    private static final int MAGIC = 0x564e5055;
+    private static final int VERSION = 2;
+    /**
+     * Unframed records, read once and then rewritten
+     */
+    private static final int VERSION_UNFRAMED = 1;
+    /**
+     * Longest possible record: a name of 65535 bytes plus two longs
+     */
+    private static final int MAX_RECORD = 2 + 65535 + 16;
+
+    private final File file;
+    private final Logger logger;
+    private final Map<String, Overrides> stored = new ConcurrentHashMap<String, Overrides>();
+    private final ConcurrentMap<String, Overrides> dirty = new ConcurrentHashMap<String, Overrides>();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private boolean rewrite = false;
+
+    VanishUserStore(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Writes all queued changes to disk
+     * Nothing is written until loaded. Changes that fail to write stay
+     * queued for the next flush, unless replaced in the meantime.
+     * Safe to call from any thread.
+     */
+    synchronized void flush() {
+        if (this.dirty.isEmpty() || !this.isLoaded()) {
+            return;
+        }
+        final Map<String, Overrides> writing = new HashMap<String, Overrides>();
+        for (final String name : this.dirty.keySet()) {
+            writing.put(name, this.dirty.remove(name));
+        }
+        try {
+            if (this.rewrite) {
+                // Everything queued is already in stored
+                this.compact();
+                this.rewrite = false;
+            } else {
+                this.append(writing);
+            }
+        } catch (final IOException e) {
+            this.logger.log(Level.WARNING, "Could not save toggles to " + this.file.getName(), e);
+            for (final Map.Entry<String, Overrides> entry : writing.entrySet()) {
+                this.dirty.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets a player's stored toggles
+     *
+     * @param name player name
+     * @return stored overrides, or null if none or not yet loaded
+     */
+    Overrides get(String name) {
+        return this.stored.get(name.toLowerCase());
+    }
+
+    /**
+     * Gets if the store has finished loading
+     *
+     * @return true if loaded
+     */
+    boolean isLoaded() {
+        return this.loaded.getCount() == 0;
+    }
+
+    /**
+     * Reads the log into memory, compacting it if worthwhile
+     * A torn or corrupt record ends the read. Records before it are kept
+     * and the log is rewritten without it.
+     * Meant to run on an async thread.
+     */
+    synchronized void load() {
+        try {
+            if (!this.file.exists()) {
+                return;
+            }
+            final Map<String, Overrides> read = new HashMap<String, Overrides>();
+            int records = 0;
+            boolean torn = false;
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+                if (in.readInt() != VanishUserStore.MAGIC) {
+                    this.logger.warning("Ignoring unrecognized " + this.file.getName());
+                    return;
+                }
+                final byte version = in.readByte();
+                if ((version != VanishUserStore.VERSION) && (version != VanishUserStore.VERSION_UNFRAMED)) {
+                    this.logger.warning("Ignoring unrecognized " + this.file.getName());
+                    return;
+                }
+                // Unframed logs are upgraded by the rewrite
+                this.rewrite = version == VanishUserStore.VERSION_UNFRAMED;
+                try {
+                    if (version == VanishUserStore.VERSION_UNFRAMED) {
+                        while (true) {
+                            try {
+                                VanishUserStore.readRecord(in, read);
+                            } catch (final EOFException e) {
+                                // No framing, so a torn final record looks like the end
+                                break;
+                            }
+                            records++;
+                        }
+                    } else {
+                        while (true) {
+                            final int length;
+                            try {
+                                length = in.readInt();
+                            } catch (final EOFException e) {
+                                break;
+                            }
+                            VanishUserStore.readFramed(in, length, read);
+                            records++;
+                        }
+                    }
+                } catch (final IOException e) {
+                    torn = true;
+                }
+            } catch (final EOFException e) {
+                // A torn header, so appending would leave it unreadable
+                this.rewrite = true;
+                return;
+            } finally {
+                VanishUserStore.close(in);
+            }
+            for (final Map.Entry<String, Overrides> entry : read.entrySet()) {
+                if (!this.dirty.containsKey(entry.getKey())) {
+                    this.putStored(entry.getKey(), entry.getValue());
+                }
+            }
+            if (torn) {
+                this.logger.warning("Dropped a damaged record from " + this.file.getName() + " after " + records + " good records");
+                this.rewrite = true;
+            }
+            if (this.rewrite || (records > ((this.stored.size() * 2) + 16))) {
+                // Left set if this fails, so the next flush retries
+                this.rewrite = true;
+                this.compact();
+                this.rewrite = false;
+            }
+        } catch (final IOException e) {
+            this.logger.log(Level.WARNING, "Could not load toggles from " + this.file.getName(), e);
+        } finally {
+            this.loaded.countDown();
+        }
+    }
+
+    /**
+     * Queues a player's toggles to be written on the next flush
+     *
+     * @param name player name
+     * @param mask which permissions are overridden
+     * @param values the overridden values
+     */
+    void put(String name, long mask, long values) {
+        final Overrides overrides = new Overrides(mask, values);
+        this.putStored(name.toLowerCase(), overrides);
+        this.dirty.put(name.toLowerCase(), overrides);
+    }
+
+    /**
+     * Waits for the store to load
+     * Only call from an async thread, such as pre-login.
+     *
+     * @param timeout most milliseconds to wait
+     * @return true if loaded
+     */
+    boolean awaitLoad(long timeout) {
+        try {
+            return this.loaded.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void append(Map<String, Overrides> writing) throws IOException {
+        final boolean fresh = !this.file.exists() || (this.file.length() == 0);
+        final long length = fresh ? 0 : this.file.length();
+        DataOutputStream out = null;
+        try {
+            this.file.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file, true)));
+            if (fresh) {
+                VanishUserStore.writeHeader(out);
+            }
+            for (final Map.Entry<String, Overrides> entry : writing.entrySet()) {
+                VanishUserStore.writeRecord(out, entry.getKey(), entry.getValue());
+            }
+            // Closed here so a failed final write is caught below
+            out.close();
+        } catch (final IOException e) {
+            VanishUserStore.close(out);
+            this.truncate(length);
+            throw e;
+        }
+    }
+
+    private void compact() throws IOException {
+        final File temp = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            VanishUserStore.writeHeader(out);
+            for (final Map.Entry<String, Overrides> entry : this.stored.entrySet()) {
+                VanishUserStore.writeRecord(out, entry.getKey(), entry.getValue());
+            }
+            // Closed here so a failed final write keeps the old log
+            out.close();
+        } finally {
+            VanishUserStore.close(out);
+        }
+        if (temp.renameTo(this.file)) {
+            return;
+        }
+        // Some platforms can't rename over an existing file
+        if (!this.file.delete() || !temp.renameTo(this.file)) {
+            throw new IOException("Could not replace " + this.file.getName());
+        }
+    }
+
+    /**
+     * Cuts a partial append off the log, so later appends don't land after
+     * a torn record. If that fails too, load finds the tear.
+     */
+    private void truncate(long length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(this.file, "rw");
+            file.setLength(length);
+        } catch (final IOException e) {
+            this.rewrite = true;
+        } finally {
+            VanishUserStore.close(file);
+        }
+    }
+
+    private void putStored(String name, Overrides overrides) {
+        if (overrides.getMask() == 0) {
+            this.stored.remove(name);
+        } else {
+            this.stored.put(name, overrides);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(VanishUserStore.MAGIC);
+        out.writeByte(VanishUserStore.VERSION);
+    }
+
+    private static void readFramed(DataInputStream in, int length, Map<String, Overrides> read) throws IOException {
+        if ((length < 0) || (length > VanishUserStore.MAX_RECORD)) {
+            throw new IOException("Bad record length " + length);
+        }
+        final byte[] record = new byte[length];
+        in.readFully(record);
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        if (in.readInt() != (int) crc.getValue()) {
+            throw new IOException("Bad record checksum");
+        }
+        VanishUserStore.readRecord(new DataInputStream(new ByteArrayInputStream(record)), read);
+    }
+
+    private static void readRecord(DataInputStream in, Map<String, Overrides> read) throws IOException {
+        read.put(in.readUTF(), new Overrides(in.readLong(), in.readLong()));
+    }
+
+    private static void writeRecord(DataOutputStream out, String name, Overrides overrides) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream record = new DataOutputStream(bytes);
+        record.writeUTF(name);
+        record.writeLong(overrides.getMask());
+        record.writeLong(overrides.getValues());
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,382 @@
+package org.kitteh.vanish;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks which online players should be hidden from which viewers.
+ * Each tracked player gets a dense slot, and each viewer slot owns a row
+ * of bits marking the targets that viewer should not see, mirrored by a
+ * column per target marking the viewers it is hidden from. Changes are
+ * computed as set-bit diffs so only pairs that actually change are
+ * handed to the {@link Applier}.
+ * Not thread safe, main thread only.
+ *
+ * @param <T> player type
+ */
+final class VisibilityMatrix<T> {
+    /**
+     * Receives the visibility changes computed by the matrix
+     *
+     * @param <T> player type
+     */
+    interface Applier<T> {
+        /**
+         * The viewer should no longer see the target
+         *
+         * @param viewer player looking
+         * @param target player to hide
+         */
+        void hide(T viewer, T target);
+
+        /**
+         * The viewer should now see the target
+         *
+         * @param viewer player looking
+         * @param target player to show
+         */
+        void show(T viewer, T target);
+
+        /**
+         * The target changed state but remains visible to the viewer
+         * Used to resend the target to viewers who can see all
+         *
+         * @param viewer player looking
+         * @param target player to refresh
+         */
+        void refresh(T viewer, T target);
+    }
+
+    private final Map<T, Integer> slots = new HashMap<T, Integer>();
+    private Object[] players = new Object[16];
+    private BitSet[] hidden = new BitSet[16];
+    private BitSet[] hiddenFrom = new BitSet[16];
+    private final BitSet occupied = new BitSet();
+    private final BitSet vanished = new BitSet();
+    private final BitSet seeAll = new BitSet();
+
+    /**
+     * Starts tracking a player, hiding all vanished players from them
+     * unless they can see all.
+     *
+     * @param player player to track
+     * @param canSeeAll if the player can see vanished players
+     * @param applier receiver of visibility changes
+     * @return the slot assigned to the player
+     */
+    int add(T player, boolean canSeeAll, Applier<T> applier) {
+        final Integer existing = this.slots.get(player);
+        if (existing != null) {
+            this.setSeeAll(player, canSeeAll, applier);
+            return existing;
+        }
+        final int slot = this.occupied.nextClearBit(0);
+        this.ensureCapacity(slot);
+        this.slots.put(player, slot);
+        this.players[slot] = player;
+        this.occupied.set(slot);
+        this.vanished.clear(slot);
+        final BitSet row = this.hidden[slot];
+        row.clear();
+        if (canSeeAll) {
+            this.seeAll.set(slot);
+        } else {
+            this.seeAll.clear(slot);
+            row.or(this.vanished);
+            for (int target = row.nextSetBit(0); target >= 0; target = row.nextSetBit(target + 1)) {
+                this.hiddenFrom[target].set(slot);
+                applier.hide(player, this.player(target));
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Removes every hide and stops tracking all players
+     *
+     * @param applier receiver of visibility changes
+     */
+    void clear(Applier<T> applier) {
+        for (int viewer = this.occupied.nextSetBit(0); viewer >= 0; viewer = this.occupied.nextSetBit(viewer + 1)) {
+            final BitSet row = this.hidden[viewer];
+            for (int target = row.nextSetBit(0); target >= 0; target = row.nextSetBit(target + 1)) {
+                applier.show(this.player(viewer), this.player(target));
+            }
+            row.clear();
+            this.hiddenFrom[viewer].clear();
+            this.players[viewer] = null;
+        }
+        this.slots.clear();
+        this.occupied.clear();
+        this.vanished.clear();
+        this.seeAll.clear();
+    }
+
+    /**
+     * Gets if a player is tracked
+     *
+     * @param player player to query
+     * @return true if tracked
+     */
+    boolean contains(T player) {
+        return this.slots.containsKey(player);
+    }
+
+    /**
+     * Gets if the matrix has the target hidden from the viewer
+     *
+     * @param viewer player looking
+     * @param target player possibly hidden
+     * @return true if hidden
+     */
+    boolean isHidden(T viewer, T target) {
+        final Integer viewerSlot = this.slots.get(viewer);
+        final Integer targetSlot = this.slots.get(target);
+        return (viewerSlot != null) && (targetSlot != null) && this.hidden[viewerSlot].get(targetSlot);
+    }
+
+    /**
+     * Gets the number of viewers the target is hidden from
+     *
+     * @param target player possibly hidden
+     * @return viewer count
+     */
+    int hiddenFromCount(T target) {
+        final Integer slot = this.slots.get(target);
+        return slot == null ? 0 : this.hiddenFrom[slot].cardinality();
+    }
+
+    /**
+     * Stops tracking a player, showing them to every viewer that had them
+     * hidden. Only those viewers are visited.
+     *
+     * @param player player to remove
+     * @param applier receiver of visibility changes
+     */
+    void remove(T player, Applier<T> applier) {
+        final Integer slotObject = this.slots.remove(player);
+        if (slotObject == null) {
+            return;
+        }
+        final int slot = slotObject;
+        this.occupied.clear(slot);
+        final BitSet column = this.hiddenFrom[slot];
+        for (int viewer = column.nextSetBit(0); viewer >= 0; viewer = column.nextSetBit(viewer + 1)) {
+            this.hidden[viewer].clear(slot);
+            applier.show(this.player(viewer), player);
+        }
+        column.clear();
+        final BitSet row = this.hidden[slot];
+        for (int target = row.nextSetBit(0); target >= 0; target = row.nextSetBit(target + 1)) {
+            this.hiddenFrom[target].clear(slot);
+        }
+        row.clear();
+        this.vanished.clear(slot);
+        this.seeAll.clear(slot);
+        this.players[slot] = null;
+    }
+
+    /**
+     * Updates whether a viewer can see all vanished players
+     *
+     * @param player viewer to update
+     * @param canSeeAll if the viewer can see vanished players
+     * @param applier receiver of visibility changes
+     */
+    void setSeeAll(T player, boolean canSeeAll, Applier<T> applier) {
+        final Integer slotObject = this.slots.get(player);
+        if (slotObject == null) {
+            this.add(player, canSeeAll, applier);
+            return;
+        }
+        final int slot = slotObject;
+        final BitSet row = this.hidden[slot];
+        final BitSet desired = new BitSet();
+        if (canSeeAll) {
+            this.seeAll.set(slot);
+        } else {
+            this.seeAll.clear(slot);
+            desired.or(this.vanished);
+            desired.clear(slot);
+        }
+        final BitSet changed = (BitSet) row.clone();
+        changed.xor(desired);
+        for (int target = changed.nextSetBit(0); target >= 0; target = changed.nextSetBit(target + 1)) {
+            if (desired.get(target)) {
+                this.hiddenFrom[target].set(slot);
+                applier.hide(player, this.player(target));
+            } else {
+                this.hiddenFrom[target].clear(slot);
+                applier.show(player, this.player(target));
+            }
+        }
+        this.hidden[slot] = desired;
+    }
+
+    /**
+     * Updates whether each of a batch of viewers can see all vanished
+     * players, in one pass. Viewers whose setting is unchanged are already
+     * in sync and cost nothing, untracked viewers are added.
+     *
+     * @param viewers viewers mapped to whether they can see vanished players
+     * @param applier receiver of visibility changes
+     */
+    void setSeeAll(Map<T, Boolean> viewers, Applier<T> applier) {
+        for (final Map.Entry<T, Boolean> entry : viewers.entrySet()) {
+            final T player = entry.getKey();
+            final boolean canSeeAll = entry.getValue();
+            final Integer slotObject = this.slots.get(player);
+            if (slotObject == null) {
+                this.add(player, canSeeAll, applier);
+                continue;
+            }
+            final int slot = slotObject;
+            if (this.seeAll.get(slot) == canSeeAll) {
+                continue;
+            }
+            final BitSet row = this.hidden[slot];
+            if (canSeeAll) {
+                this.seeAll.set(slot);
+                for (int target = row.nextSetBit(0); target >= 0; target = row.nextSetBit(target + 1)) {
+                    this.hiddenFrom[target].clear(slot);
+                    applier.show(player, this.player(target));
+                }
+                row.clear();
+            } else {
+                this.seeAll.clear(slot);
+                row.or(this.vanished);
+                row.clear(slot);
+                for (int target = row.nextSetBit(0); target >= 0; target = row.nextSetBit(target + 1)) {
+                    this.hiddenFrom[target].set(slot);
+                    applier.hide(player, this.player(target));
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates whether several players are vanished, in one pass over the
+     * viewers. Players not tracked or already in the given state are
+     * skipped.
+     *
+     * @param players players mapped to true if vanishing, false if revealing
+     * @param applier receiver of visibility changes
+     */
+    void setVanished(Map<T, Boolean> players, Applier<T> applier) {
+        final BitSet vanishing = new BitSet();
+        final BitSet revealing = new BitSet();
+        for (final Map.Entry<T, Boolean> entry : players.entrySet()) {
+            final Integer slot = this.slots.get(entry.getKey());
+            if ((slot == null) || (this.vanished.get(slot) == entry.getValue())) {
+                continue;
+            }
+            this.vanished.set(slot, entry.getValue());
+            (entry.getValue() ? vanishing : revealing).set(slot);
+        }
+        final BitSet changed = (BitSet) vanishing.clone();
+        changed.or(revealing);
+        if (changed.isEmpty()) {
+            return;
+        }
+        for (int viewer = this.occupied.nextSetBit(0); viewer >= 0; viewer = this.occupied.nextSetBit(viewer + 1)) {
+            if (this.seeAll.get(viewer)) {
+                for (int target = changed.nextSetBit(0); target >= 0; target = changed.nextSetBit(target + 1)) {
+                    if (target != viewer) {
+                        applier.refresh(this.player(viewer), this.player(target));
+                    }
+                }
+                continue;
+            }
+            final BitSet row = this.hidden[viewer];
+            for (int target = vanishing.nextSetBit(0); target >= 0; target = vanishing.nextSetBit(target + 1)) {
+                if ((target != viewer) && !row.get(target)) {
+                    row.set(target);
+                    this.hiddenFrom[target].set(viewer);
+                    applier.hide(this.player(viewer), this.player(target));
+                }
+            }
+            for (int target = revealing.nextSetBit(0); target >= 0; target = revealing.nextSetBit(target + 1)) {
+                if (row.get(target)) {
+                    row.clear(target);
+                    this.hiddenFrom[target].clear(viewer);
+                    applier.show(this.player(viewer), this.player(target));
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates whether a player is vanished
+     *
+     * @param player player to update
+     * @param vanish true if vanishing
+     * @param canSeeAll if the player can see vanished players, used if not yet tracked
+     * @param applier receiver of visibility changes
+     * @return false if the player was already in that state
+     */
+    boolean setVanished(T player, boolean vanish, boolean canSeeAll, Applier<T> applier) {
+        final int slot = this.add(player, canSeeAll, applier);
+        if (this.vanished.get(slot) == vanish) {
+            return false;
+        }
+        if (vanish) {
+            this.vanished.set(slot);
+        } else {
+            this.vanished.clear(slot);
+        }
+        for (int viewer = this.occupied.nextSetBit(0); viewer >= 0; viewer = this.occupied.nextSetBit(viewer + 1)) {
+            if (viewer == slot) {
+                continue;
+            }
+            if (this.seeAll.get(viewer)) {
+                applier.refresh(this.player(viewer), player);
+            } else if (this.hidden[viewer].get(slot) != vanish) {
+                this.hidden[viewer].set(slot, vanish);
+                this.hiddenFrom[slot].set(viewer, vanish);
+                if (vanish) {
+                    applier.hide(this.player(viewer), player);
+                } else {
+                    applier.show(this.player(viewer), player);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of tracked players
+     *
+     * @return tracked player count
+     */
+    int size() {
+        return this.slots.size();
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot >= this.players.length) {
+            int length = this.players.length;
+            while (slot >= length) {
+                length *= 2;
+            }
+            final Object[] players = new Object[length];
+            System.arraycopy(this.players, 0, players, 0, this.players.length);
+            final BitSet[] hidden = new BitSet[length];
+            System.arraycopy(this.hidden, 0, hidden, 0, this.hidden.length);
+            final BitSet[] hiddenFrom = new BitSet[length];
+            System.arraycopy(this.hiddenFrom, 0, hiddenFrom, 0, this.hiddenFrom.length);
+            this.players = players;
+            this.hidden = hidden;
+            this.hiddenFrom = hiddenFrom;
+        }
+        if (this.hidden[slot] == null) {
+            this.hidden[slot] = new BitSet();
+            this.hiddenFrom[slot] = new BitSet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T player(int slot) {
+        return (T) this.players[slot];
+    }
+}
@@ -0,0 +1,347 @@
+package org.kitteh.vanish;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * Queues hidePlayer and showPlayer calls and applies them under a per-tick
+ * budget, counted in operations and in nanoseconds.
+ * Hides are always applied before shows.
+ * Each (viewer, target) pair holds at most one live hide and one live show.
+ * A queued hide and a queued show for the same pair cancel each other out,
+ * as the client already shows what the second one asks for.
+ * Main thread only.
+ *
+ * @param <T> player type
+ */
+final class VisibilityScheduler<T> implements Runnable {
+    /**
+     * Where operations end up once due
+     *
+     * @param <T> player type
+     */
+    interface Sink<T> {
+        void hide(T viewer, T target);
+
+        boolean isOnline(T player);
+
+        void show(T viewer, T target);
+    }
+
+    /**
+     * Source of the time spent per tick
+     */
+    interface Clock {
+        long nanoTime();
+    }
+
+    private static final class Operation<T> {
+        private final Pending<T> pending;
+        private final long generation;
+        private final long tick;
+
+        private Operation(Pending<T> pending, long generation, long tick) {
+            this.pending = pending;
+            this.generation = generation;
+            this.tick = tick;
+        }
+    }
+
+    private static final class Pair<T> {
+        private final T viewer;
+        private final T target;
+
+        private Pair(T viewer, T target) {
+            this.viewer = viewer;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            final Pair<?> pair = (Pair<?>) o;
+            return this.viewer.equals(pair.viewer) && this.target.equals(pair.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * this.viewer.hashCode()) + this.target.hashCode();
+        }
+    }
+
+    private static final class Pending<T> {
+        private final Pair<T> pair;
+        private long hide = 0;
+        private long show = 0;
+
+        private Pending(Pair<T> pair) {
+            this.pair = pair;
+        }
+    }
+
+    /**
+     * Ticks to wait before showing a player again after a refresh hide,
+     * giving the client time to drop the entity first.
+     */
+    static final int REFRESH_DELAY = 5;
+
+    private final Sink<T> sink;
+    private final Clock clock;
+    private final Map<Pair<T>, Pending<T>> pending = new HashMap<Pair<T>, Pending<T>>();
+    private final Queue<Operation<T>> hides = new ArrayDeque<Operation<T>>();
+    private final Queue<Operation<T>> shows = new PriorityQueue<Operation<T>>(16, new Comparator<Operation<T>>() {
+        @Override
+        public int compare(Operation<T> o1, Operation<T> o2) {
+            if (o1.tick != o2.tick) {
+                return o1.tick < o2.tick ? -1 : 1;
+            }
+            return o1.generation < o2.generation ? -1 : (o1.generation == o2.generation ? 0 : 1);
+        }
+    });
+    private long tick = 0;
+    private long generation = 0;
+    private int liveHides = 0;
+    private int liveShows = 0;
+
+    VisibilityScheduler(Sink<T> sink, Clock clock) {
+        this.sink = sink;
+        this.clock = clock;
+    }
+
+    /**
+     * Drops all queued operations
+     */
+    void clear() {
+        this.pending.clear();
+        this.hides.clear();
+        this.shows.clear();
+        this.liveHides = 0;
+        this.liveShows = 0;
+    }
+
+    /**
+     * Applies every queued operation now, ignoring budgets and delays
+     */
+    void flush() {
+        while (!this.hides.isEmpty()) {
+            final Operation<T> operation = this.hides.poll();
+            if (operation.pending.hide == operation.generation) {
+                operation.pending.hide = 0;
+                if (this.isValid(operation)) {
+                    this.sink.hide(operation.pending.pair.viewer, operation.pending.pair.target);
+                }
+            }
+        }
+        while (!this.shows.isEmpty()) {
+            final Operation<T> operation = this.shows.poll();
+            if (operation.pending.show == operation.generation) {
+                operation.pending.show = 0;
+                if (this.isValid(operation)) {
+                    this.sink.show(operation.pending.pair.viewer, operation.pending.pair.target);
+                }
+            }
+        }
+        this.clear();
+    }
+
+    /**
+     * Gets the number of hides waiting to be applied
+     *
+     * @return queued hide count
+     */
+    int getPendingHides() {
+        return this.liveHides;
+    }
+
+    /**
+     * Gets the number of shows waiting to be applied
+     *
+     * @return queued show count
+     */
+    int getPendingShows() {
+        return this.liveShows;
+    }
+
+    /**
+     * Queues hiding the target from the viewer
+     * A queued show for the pair is cancelled instead, as the viewer has
+     * not been shown the target yet.
+     *
+     * @param viewer player looking
+     * @param target player to hide
+     */
+    void hide(T viewer, T target) {
+        final Pending<T> pending = this.getPending(viewer, target);
+        if (pending.show != 0) {
+            pending.show = 0;
+            this.liveShows--;
+            this.release(pending);
+            return;
+        }
+        if (pending.hide != 0) {
+            return;
+        }
+        pending.hide = ++this.generation;
+        this.liveHides++;
+        this.hides.add(new Operation<T>(pending, pending.hide, this.tick));
+    }
+
+    /**
+     * Queues a hide followed by a delayed show, resending the target
+     * Does nothing if a show is already queued, as the target will be sent
+     * then.
+     *
+     * @param viewer player looking
+     * @param target player to refresh
+     */
+    void refresh(T viewer, T target) {
+        final Pending<T> pending = this.getPending(viewer, target);
+        if (pending.show != 0) {
+            return;
+        }
+        if (pending.hide == 0) {
+            pending.hide = ++this.generation;
+            this.liveHides++;
+            this.hides.add(new Operation<T>(pending, pending.hide, this.tick));
+        }
+        pending.show = ++this.generation;
+        this.liveShows++;
+        this.shows.add(new Operation<T>(pending, pending.show, this.tick + VisibilityScheduler.REFRESH_DELAY));
+    }
+
+    @Override
+    public void run() {
+        this.run(Settings.getVisibilityOperationBudget(), Settings.getVisibilityTimeBudget());
+    }
+
+    /**
+     * Queues showing the target to the viewer
+     * A queued hide for the pair is cancelled instead, as the viewer has
+     * not lost sight of the target yet.
+     *
+     * @param viewer player looking
+     * @param target player to show
+     */
+    void show(T viewer, T target) {
+        final Pending<T> pending = this.getPending(viewer, target);
+        if (pending.show != 0) {
+            return;
+        }
+        if (pending.hide != 0) {
+            pending.hide = 0;
+            this.liveHides--;
+            this.release(pending);
+            return;
+        }
+        pending.show = ++this.generation;
+        this.liveShows++;
+        this.shows.add(new Operation<T>(pending, pending.show, this.tick));
+    }
+
+    /**
+     * Applies due operations within a budget
+     *
+     * @param maxOperations most operations to apply
+     * @param maxNanos most time to spend, at least one operation always runs
+     */
+    void run(int maxOperations, long maxNanos) {
+        this.tick++;
+        final long start = this.clock.nanoTime();
+        int done = 0;
+        while (!this.hides.isEmpty() && (done < maxOperations)) {
+            if ((done > 0) && ((this.clock.nanoTime() - start) >= maxNanos)) {
+                return;
+            }
+            final Operation<T> operation = this.hides.poll();
+            final Pending<T> pending = operation.pending;
+            if (pending.hide != operation.generation) {
+                continue;
+            }
+            pending.hide = 0;
+            this.liveHides--;
+            this.release(pending);
+            if (this.isValid(operation)) {
+                this.sink.hide(pending.pair.viewer, pending.pair.target);
+                done++;
+            }
+        }
+        while (!this.shows.isEmpty() && (done < maxOperations)) {
+            final Operation<T> operation = this.shows.peek();
+            final Pending<T> pending = operation.pending;
+            if (pending.show != operation.generation) {
+                this.shows.poll();
+                continue;
+            }
+            if ((operation.tick > this.tick) || ((done > 0) && ((this.clock.nanoTime() - start) >= maxNanos))) {
+                return;
+            }
+            this.shows.poll();
+            pending.show = 0;
+            this.liveShows--;
+            this.release(pending);
+            if (this.isValid(operation)) {
+                this.sink.show(pending.pair.viewer, pending.pair.target);
+                done++;
+            }
+        }
+    }
+
+    /**
+     * Settles everything queued for a target who is leaving
+     * Queued shows are applied right away, so no viewer keeps a hide for
+     * the target into their next session. Queued hides are dropped.
+     *
+     * @param target the departing player
+     */
+    void targetQuit(T target) {
+        final Iterator<Pending<T>> iterator = this.pending.values().iterator();
+        while (iterator.hasNext()) {
+            final Pending<T> pending = iterator.next();
+            if (!pending.pair.target.equals(target)) {
+                continue;
+            }
+            iterator.remove();
+            if (pending.hide != 0) {
+                pending.hide = 0;
+                this.liveHides--;
+            }
+            if (pending.show != 0) {
+                pending.show = 0;
+                this.liveShows--;
+                if (this.sink.isOnline(pending.pair.viewer)) {
+                    this.sink.show(pending.pair.viewer, target);
+                }
+            }
+        }
+    }
+
+    private Pending<T> getPending(T viewer, T target) {
+        final Pair<T> pair = new Pair<T>(viewer, target);
+        Pending<T> pending = this.pending.get(pair);
+        if (pending == null) {
+            pending = new Pending<T>(pair);
+            this.pending.put(pair, pending);
+        }
+        return pending;
+    }
+
+    private boolean isValid(Operation<T> operation) {
+        return this.sink.isOnline(operation.pending.pair.viewer) && this.sink.isOnline(operation.pending.pair.target);
+    }
+
+    private void release(Pending<T> pending) {
+        if ((pending.hide == 0) && (pending.show == 0)) {
+            this.pending.remove(pending.pair);
+        }
+    }
+}
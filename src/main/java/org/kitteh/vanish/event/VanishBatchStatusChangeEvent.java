@@ -0,0 +1,60 @@
+package org.kitteh.vanish.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * An event fired once when a bulk operation or transaction changes the
+ * visibility of several players. Fired after a
+ * {@link VanishStatusChangeEvent} for each of them, so listen to only one
+ * of the two.
+ */
+public final class VanishBatchStatusChangeEvent extends Event {
+    private static final HandlerList handlers = new HandlerList();
+
+    public static HandlerList getHandlerList() {
+        return VanishBatchStatusChangeEvent.handlers;
+    }
+
+    private final List<Player> vanishing;
+    private final List<Player> revealing;
+
+    public VanishBatchStatusChangeEvent(Map<Player, Boolean> changes) {
+        final List<Player> vanishing = new ArrayList<Player>();
+        final List<Player> revealing = new ArrayList<Player>();
+        for (final Map.Entry<Player, Boolean> entry : changes.entrySet()) {
+            (entry.getValue() ? vanishing : revealing).add(entry.getKey());
+        }
+        this.vanishing = Collections.unmodifiableList(vanishing);
+        this.revealing = Collections.unmodifiableList(revealing);
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return VanishBatchStatusChangeEvent.handlers;
+    }
+
+    /**
+     * Gets the players becoming visible
+     *
+     * @return unmodifiable list of revealing players
+     */
+    public List<Player> getRevealing() {
+        return this.revealing;
+    }
+
+    /**
+     * Gets the players vanishing
+     *
+     * @return unmodifiable list of vanishing players
+     */
+    public List<Player> getVanishing() {
+        return this.vanishing;
+    }
+}
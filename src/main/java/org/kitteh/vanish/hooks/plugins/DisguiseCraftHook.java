@@ -25,11 +25,7 @@ public final class DisguiseCraftHook extends Hook implements Listener {
         if (this.disguiseCraft == null) {
             return;
         }
-        final Player player = event.getPlayer();
-        if (this.disguiseCraft.isDisguised(player)) {
-            this.disguiseCraft.undisguisePlayer(player);
-            player.sendMessage(ChatColor.AQUA + "You have been undisguised for toggling vanishing.");
-        }
+        this.undisguise(event.getPlayer());
     }
 
     @EventHandler
@@ -53,4 +49,11 @@ public final class DisguiseCraftHook extends Hook implements Listener {
             this.plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
         }
     }
+
+    private void undisguise(Player player) {
+        if (this.disguiseCraft.isDisguised(player)) {
+            this.disguiseCraft.undisguisePlayer(player);
+            player.sendMessage(ChatColor.AQUA + "You have been undisguised for toggling vanishing.");
+        }
+    }
 }
\ No newline at end of file
@@ -1,69 +1,194 @@
 package org.kitteh.vanish.hooks.plugins;
 
-import org.bukkit.ChatColor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.bukkit.Effect;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
 import org.kitteh.vanish.VanishPlugin;
 import org.kitteh.vanish.hooks.Hook;
 
-import com.comphenix.protocol.Packets;
+import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.ProtocolLibrary;
-import com.comphenix.protocol.events.ConnectionSide;
-import com.comphenix.protocol.events.ListenerPriority;
-import com.comphenix.protocol.events.PacketAdapter;
-import com.comphenix.protocol.events.PacketEvent;
-import com.comphenix.protocol.injector.GamePhase;
-import com.comphenix.protocol.reflect.FieldAccessException;
+import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.reflect.StructureModifier;
+import com.comphenix.protocol.wrappers.WrappedDataWatcher;
 
 public final class ProtocolLibHook extends Hook {
+    /**
+     * Fake bats shown by one effect
+     */
+    private static final class FakeFlock {
+        private final int[] ids;
+        private final List<Player> viewers;
+
+        private FakeFlock(int[] ids, List<Player> viewers) {
+            this.ids = ids;
+            this.viewers = viewers;
+        }
+    }
+
+    /**
+     * Mob type id of a bat
+     */
+    private static final int BAT = 65;
+
+    /**
+     * Ticks between fake bat moves
+     */
+    private static final int MOVE_INTERVAL = 2;
+
+    private final Random random = new Random();
+    private final List<FakeFlock> flocks = new ArrayList<FakeFlock>();
+    private int nextEntityId = Integer.MAX_VALUE;
+    private boolean hooked = false;
+
     public ProtocolLibHook(VanishPlugin plugin) {
         super(plugin);
     }
 
+    /**
+     * Shows bats that exist only on the clients of the given players,
+     * flutter about and then vanish in a puff of smoke
+     * The server spawns, ticks and tracks nothing.
+     *
+     * @param location where the bats appear
+     * @param viewers players to show the bats to
+     * @param count number of bats
+     * @param ticks how long the bats stay
+     */
+    public void fakeBats(final Location location, final List<Player> viewers, int count, final int ticks) {
+        if (viewers.isEmpty()) {
+            return;
+        }
+        final ProtocolManager manager = ProtocolLibrary.getProtocolManager();
+        final int[] ids = new int[count];
+        final double[][] positions = new double[count][];
+        for (int i = 0; i < count; i++) {
+            ids[i] = this.nextEntityId--;
+            positions[i] = new double[] { location.getX(), location.getY(), location.getZ() };
+            final PacketContainer spawn = manager.createPacket(PacketType.Play.Server.SPAWN_ENTITY_LIVING);
+            final StructureModifier<Integer> ints = spawn.getIntegers();
+            ints.write(0, ids[i]);
+            ints.write(1, ProtocolLibHook.BAT);
+            ints.write(2, (int) Math.floor(location.getX() * 32));
+            ints.write(3, (int) Math.floor(location.getY() * 32));
+            ints.write(4, (int) Math.floor(location.getZ() * 32));
+            final WrappedDataWatcher watcher = new WrappedDataWatcher();
+            watcher.setObject(0, (byte) 0);
+            watcher.setObject(16, (byte) 0);
+            spawn.getDataWatcherModifier().write(0, watcher);
+            this.send(viewers, spawn);
+        }
+        final FakeFlock flock = new FakeFlock(ids, viewers);
+        this.flocks.add(flock);
+        new BukkitRunnable() {
+            private int age = 0;
+
+            @Override
+            public void run() {
+                this.age += ProtocolLibHook.MOVE_INTERVAL;
+                if (this.age >= ticks) {
+                    this.cancel();
+                    ProtocolLibHook.this.destroy(flock);
+                    for (final double[] position : positions) {
+                        final Location puff = new Location(location.getWorld(), position[0], position[1], position[2]);
+                        final int data = ProtocolLibHook.this.random.nextInt(9);
+                        for (final Player viewer : viewers) {
+                            if (viewer.isOnline()) {
+                                viewer.playEffect(puff, Effect.SMOKE, data);
+                            }
+                        }
+                    }
+                    return;
+                }
+                for (int i = 0; i < ids.length; i++) {
+                    final byte dx = (byte) (ProtocolLibHook.this.random.nextInt(33) - 16);
+                    final byte dy = (byte) (ProtocolLibHook.this.random.nextInt(21) - 6);
+                    final byte dz = (byte) (ProtocolLibHook.this.random.nextInt(33) - 16);
+                    positions[i][0] += dx / 32D;
+                    positions[i][1] += dy / 32D;
+                    positions[i][2] += dz / 32D;
+                    final PacketContainer move = manager.createPacket(PacketType.Play.Server.REL_ENTITY_MOVE);
+                    move.getIntegers().write(0, ids[i]);
+                    final StructureModifier<Byte> bytes = move.getBytes();
+                    bytes.write(0, dx);
+                    bytes.write(1, dy);
+                    bytes.write(2, dz);
+                    ProtocolLibHook.this.send(viewers, move);
+                }
+            }
+        }.runTaskTimer(this.plugin, ProtocolLibHook.MOVE_INTERVAL, ProtocolLibHook.MOVE_INTERVAL);
+    }
+
+    /**
+     * Shows an explosion, with its sound, to the given players only
+     * Nothing in the world is touched.
+     *
+     * @param location where the explosion appears
+     * @param viewers players to show the explosion to
+     */
+    public void fakeExplosion(Location location, List<Player> viewers) {
+        final PacketContainer explosion = ProtocolLibrary.getProtocolManager().createPacket(PacketType.Play.Server.EXPLOSION);
+        final StructureModifier<Double> doubles = explosion.getDoubles();
+        doubles.write(0, location.getX());
+        doubles.write(1, location.getY());
+        doubles.write(2, location.getZ());
+        explosion.getFloat().write(0, 4F);
+        explosion.getSpecificModifier(List.class).write(0, new ArrayList<Object>());
+        this.send(viewers, explosion);
+    }
+
+    /**
+     * Gets if ProtocolLib is present
+     *
+     * @return true if hooked into ProtocolLib
+     */
+    public boolean isHooked() {
+        return this.hooked;
+    }
+
+    @Override
+    public void onDisable() {
+        // The movement tasks are cancelled with the plugin, so clear what they would have
+        for (final FakeFlock flock : new ArrayList<FakeFlock>(this.flocks)) {
+            this.destroy(flock);
+        }
+    }
+
     @Override
     public void onEnable() {
+        // The server list count is left to ListenServerPing
         final Plugin grab = this.plugin.getServer().getPluginManager().getPlugin("ProtocolLib");
         if (grab != null) {
-            ProtocolLibrary.getProtocolManager().addPacketListener(new PacketAdapter(this.plugin, ConnectionSide.SERVER_SIDE, ListenerPriority.HIGHEST, GamePhase.LOGIN, Packets.Server.KICK_DISCONNECT) {
-                @Override
-                public void onPacketSending(PacketEvent event) {
-                    try {
-                        final StructureModifier<String> stringModifier = event.getPacket().getSpecificModifier(String.class);
-                        final String replyString = stringModifier.read(0);
-                        int offset = 0;
-                        String splitter = String.valueOf(ChatColor.COLOR_CHAR); // 1.3 and earlier
-                        if (replyString.startsWith(splitter)) { // 1.4 and onward
-                            splitter = "\u0000";
-                            offset = 3;
-                        }
-                        final String[] split = replyString.split(splitter);
-                        if (split.length == (3 + offset)) {
-                            int online;
-                            try {
-                                online = Integer.parseInt(split[1 + offset]);
-                            } catch (final NumberFormatException e) {
-                                return;
-                            }
-                            online -= ProtocolLibHook.this.plugin.getManager().numVanished();
-                            final StringBuilder builder = new StringBuilder();
-                            for (int x = 0; x < split.length; x++) {
-                                if (builder.length() > 0) {
-                                    builder.append(splitter);
-                                }
-                                if (x == (1 + offset)) {
-                                    builder.append(online);
-                                    continue;
-                                }
-                                builder.append(split[x]);
-                            }
-                            stringModifier.write(0, builder.toString());
-                        }
-                    } catch (final FieldAccessException e) {
-                    }
+            this.plugin.getLogger().info("Now hooking into ProtocolLib");
+            this.hooked = true;
+        }
+    }
+
+    private void destroy(FakeFlock flock) {
+        this.flocks.remove(flock);
+        final PacketContainer destroy = ProtocolLibrary.getProtocolManager().createPacket(PacketType.Play.Server.ENTITY_DESTROY);
+        destroy.getIntegerArrays().write(0, flock.ids);
+        this.send(flock.viewers, destroy);
+    }
+
+    private void send(List<Player> viewers, PacketContainer packet) {
+        for (final Player viewer : viewers) {
+            if (viewer.isOnline()) {
+                try {
+                    ProtocolLibrary.getProtocolManager().sendServerPacket(viewer, packet);
+                } catch (final InvocationTargetException e) {
+                    this.plugin.getLogger().log(Level.WARNING, "Could not send effect packet to " + viewer.getName(), e);
                 }
-            });
-        } else {
-            return;
+            }
         }
     }
 }
\ No newline at end of file
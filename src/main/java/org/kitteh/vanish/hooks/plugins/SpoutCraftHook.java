@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.UUID;
 import java.util.logging.Level;
 
 import org.bukkit.ChatColor;
@@ -60,9 +61,9 @@ public final class SpoutCraftHook extends Hook implements Listener {
     private HashMap<String, String> cloaks;
     private HashMap<String, String> skins;
     private HashMap<String, String> titles;
-    private HashMap<String, PlayerData> playerDataMap;
+    private HashMap<UUID, PlayerData> playerDataMap;
     private Color boxColor;
-    private HashMap<String, StatusBar> bars;
+    private HashMap<UUID, StatusBar> bars;
 
     public SpoutCraftHook(VanishPlugin plugin) {
         super(plugin);
@@ -94,8 +95,8 @@ public final class SpoutCraftHook extends Hook implements Listener {
         this.cloaks = new HashMap<String, String>();
         this.skins = new HashMap<String, String>();
         this.titles = new HashMap<String, String>();
-        this.bars = new HashMap<String, StatusBar>();
-        this.playerDataMap = new HashMap<String, PlayerData>();
+        this.bars = new HashMap<UUID, StatusBar>();
+        this.playerDataMap = new HashMap<UUID, PlayerData>();
         final File confFile = new File(this.plugin.getDataFolder(), "spoutcraft.yml");
         final FileConfiguration config = YamlConfiguration.loadConfiguration(confFile);
         config.options().copyDefaults(true);
@@ -128,11 +129,12 @@ public final class SpoutCraftHook extends Hook implements Listener {
         if (!this.enabled) {
             return;
         }
-        final String name = player.getName();
+        final UUID uniqueId = player.getUniqueId();
         this.plugin.getServer().getScheduler().scheduleSyncDelayedTask(this.plugin, new Runnable() {
             @Override
             public void run() {
-                SpoutCraftHook.this.bars.remove(name);
+                SpoutCraftHook.this.bars.remove(uniqueId);
+                SpoutCraftHook.this.playerDataMap.remove(uniqueId);
             }
         }, 1);
     }
@@ -148,7 +150,7 @@ public final class SpoutCraftHook extends Hook implements Listener {
         }
         for (final SpoutPlayer p : SpoutManager.getOnlinePlayers()) {
             if (this.plugin.getManager().isVanished(p.getName())) {
-                PlayerData data = this.playerDataMap.get(p.getName());
+                PlayerData data = this.playerDataMap.get(p.getUniqueId());
                 if (data == null) {
                     data = this.initPlayer(p);
                 }
@@ -182,7 +184,7 @@ public final class SpoutCraftHook extends Hook implements Listener {
             return;
         }
         this.attachStatusBar(SpoutManager.getPlayer(vanishing));
-        PlayerData data = this.playerDataMap.get(vanishing.getName());
+        PlayerData data = this.playerDataMap.get(vanishing.getUniqueId());
         if (data == null) {
             data = this.initPlayer(vanishing);
         }
@@ -201,10 +203,10 @@ public final class SpoutCraftHook extends Hook implements Listener {
     }
 
     private StatusBar getStatusBar(SpoutPlayer player) {
-        StatusBar bar = this.bars.get(player.getName());
+        StatusBar bar = this.bars.get(player.getUniqueId());
         if (bar == null) {
             bar = new StatusBar(player);
-            this.bars.put(player.getName(), bar);
+            this.bars.put(player.getUniqueId(), bar);
         }
         return bar;
     }
@@ -232,7 +234,7 @@ public final class SpoutCraftHook extends Hook implements Listener {
             }
         }
         final PlayerData playerData = new PlayerData(skin, cloak, title);
-        this.playerDataMap.put(player.getName(), playerData);
+        this.playerDataMap.put(player.getUniqueId(), playerData);
         return playerData;
     }
 
@@ -10,7 +10,7 @@ import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityTargetEvent;
 import org.bukkit.event.vehicle.VehicleDestroyEvent;
 import org.bukkit.event.vehicle.VehicleEntityCollisionEvent;
-import org.kitteh.vanish.VanishPerms;
+import org.kitteh.vanish.VanishPlayerState;
 import org.kitteh.vanish.VanishPlugin;
 
 public final class ListenEntity implements Listener {
@@ -22,6 +22,9 @@ public final class ListenEntity implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onEntityDamage(EntityDamageEvent event) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
         final Entity smacked = event.getEntity();
         if (this.plugin.getManager().getBats().contains(smacked.getUniqueId())) {
             event.setCancelled(true);
@@ -29,7 +32,8 @@ public final class ListenEntity implements Listener {
         }
         if (smacked instanceof Player) {
             final Player player = (Player) smacked;
-            if (this.plugin.getManager().isVanished(player) && VanishPerms.blockIncomingDamage(player)) {
+            final VanishPlayerState state = this.plugin.getManager().getState(player);
+            if ((state != null) && state.isVanished() && state.getUser().getPreventIncomingDamage()) {
                 event.setCancelled(true);
             }
         }
@@ -45,24 +49,37 @@ public final class ListenEntity implements Listener {
                     player = (Player) projectile.getShooter();
                 }
             }
-            if ((player != null) && this.plugin.getManager().isVanished(player) && VanishPerms.blockOutgoingDamage(player)) {
-                event.setCancelled(true);
+            if (player != null) {
+                final VanishPlayerState state = this.plugin.getManager().getState(player);
+                if ((state != null) && state.isVanished() && state.getUser().getPreventOutgoingDamage()) {
+                    event.setCancelled(true);
+                }
             }
         }
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onEntityTarget(EntityTargetEvent event) {
-        if ((event.getTarget() instanceof Player) && this.plugin.getManager().isVanished((Player) event.getTarget()) && VanishPerms.canNotFollow((Player) event.getTarget())) {
-            event.setCancelled(true);
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
+        if (event.getTarget() instanceof Player) {
+            final VanishPlayerState state = this.plugin.getManager().getState((Player) event.getTarget());
+            if ((state != null) && state.isVanished() && state.getUser().getNoFollow()) {
+                event.setCancelled(true);
+            }
         }
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onVehicleDestroy(VehicleDestroyEvent event) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
         final Entity entity = event.getAttacker();
-        if ((entity instanceof Player) && this.plugin.getManager().isVanished((Player) event.getAttacker())) {
-            if (VanishPerms.canNotInteract((Player) entity)) {
+        if (entity instanceof Player) {
+            final VanishPlayerState state = this.plugin.getManager().getState((Player) entity);
+            if ((state != null) && state.isVanished() && state.getUser().getNoInteract()) {
                 event.setCancelled(true);
             }
         }
@@ -70,6 +87,9 @@ public final class ListenEntity implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onVehicleEntityCollision(VehicleEntityCollisionEvent event) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
         if ((event.getEntity() instanceof Player) && this.plugin.getManager().isVanished((Player) event.getEntity())) {
             event.setCancelled(true);
         }
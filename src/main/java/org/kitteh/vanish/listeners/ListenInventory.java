@@ -1,5 +1,6 @@
 package org.kitteh.vanish.listeners;
 
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
@@ -15,15 +16,15 @@ public final class ListenInventory implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onInventoryClick(InventoryClickEvent event) {
-        if (this.plugin.chestFakeInUse(event.getWhoClicked().getName())) {
+        if ((event.getWhoClicked() instanceof Player) && this.plugin.chestFakeInUse((Player) event.getWhoClicked())) {
             event.setCancelled(true);
         }
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onInventoryClose(InventoryCloseEvent event) {
-        if (this.plugin.chestFakeInUse(event.getPlayer().getName())) {
-            this.plugin.chestFakeClose(event.getPlayer().getName());
+        if ((event.getPlayer() instanceof Player) && this.plugin.chestFakeInUse((Player) event.getPlayer())) {
+            this.plugin.chestFakeClose((Player) event.getPlayer());
         }
     }
 }
\ No newline at end of file
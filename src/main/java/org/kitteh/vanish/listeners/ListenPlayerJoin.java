@@ -1,19 +1,48 @@
 package org.kitteh.vanish.listeners;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.metadata.LazyMetadataValue;
-import org.bukkit.metadata.LazyMetadataValue.CacheStrategy;
-import org.kitteh.vanish.VanishCheck;
+import org.kitteh.vanish.VanishManager;
 import org.kitteh.vanish.VanishPerms;
 import org.kitteh.vanish.VanishPlugin;
 import org.kitteh.vanish.metrics.MetricsOverlord;
 
+/**
+ * Handles joins in two stages. Everything that keeps a vanished player
+ * hidden runs in the join tick, hooks and messages are deferred.
+ */
 public final class ListenPlayerJoin implements Listener {
+    /**
+     * What was decided about a joining player, worked out once in the early
+     * handler and carried to the late one
+     */
+    private static final class JoinContext {
+        private final boolean joinVanished;
+        private final boolean preVanished;
+        private final boolean restored;
+        private final long nanos;
+
+        private JoinContext(boolean joinVanished, boolean preVanished, boolean restored, long nanos) {
+            this.joinVanished = joinVanished;
+            this.preVanished = preVanished;
+            this.restored = restored;
+            this.nanos = nanos;
+        }
+
+        private boolean isVanishing() {
+            return this.joinVanished || this.preVanished || this.restored;
+        }
+    }
+
     private final VanishPlugin plugin;
+    private final Map<Player, JoinContext> joining = new HashMap<Player, JoinContext>();
 
     public ListenPlayerJoin(VanishPlugin instance) {
         this.plugin = instance;
@@ -21,41 +50,77 @@ public final class ListenPlayerJoin implements Listener {
 
     @EventHandler(priority = EventPriority.LOW)
     public void onPlayerJoinEarly(PlayerJoinEvent event) {
-        event.getPlayer().setMetadata("vanished", new LazyMetadataValue(this.plugin, CacheStrategy.NEVER_CACHE, new VanishCheck(this.plugin.getManager(), event.getPlayer().getName())));
-        this.plugin.getManager().resetSeeing(event.getPlayer());
-        if (VanishPerms.joinVanished(event.getPlayer())) {
+        final long start = System.nanoTime();
+        final Player player = event.getPlayer();
+        final VanishManager manager = this.plugin.getManager();
+        manager.playerJoin(player);
+        final boolean joinVanished = VanishPerms.joinVanished(player);
+        final boolean preVanished = manager.consumePreVanish(player);
+        final boolean restored = manager.consumeRestoredVanish(player);
+        if (joinVanished || preVanished || restored) {
             MetricsOverlord.getJoinInvisTracker().increment();
-            this.plugin.getManager().toggleVanishQuiet(event.getPlayer(), false);
-            this.plugin.hooksVanish(event.getPlayer());
+            manager.toggleVanishQuiet(player, false);
         }
-        this.plugin.hooksJoin(event.getPlayer());
+        this.joining.put(player, new JoinContext(joinVanished, preVanished, restored, System.nanoTime() - start));
     }
 
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerJoinLate(PlayerJoinEvent event) {
+        final long start = System.nanoTime();
+        final Player player = event.getPlayer();
+        final VanishManager manager = this.plugin.getManager();
+        final JoinContext context = this.joining.remove(player);
+        if (context == null) {
+            return;
+        }
+        final boolean silent = VanishPerms.joinWithoutAnnounce(player);
+        if (silent) {
+            manager.getAnnounceManipulator().addToDelayedAnnounce(player);
+            event.setJoinMessage(null);
+        }
+        manager.defer(new Runnable() {
+            @Override
+            public void run() {
+                if (player.isOnline()) {
+                    ListenPlayerJoin.this.finishJoin(player, context, silent);
+                }
+            }
+        });
+        manager.recordJoinCost(context.nanos + (System.nanoTime() - start));
+    }
+
+    private void finishJoin(Player player, JoinContext context, boolean silent) {
+        if (context.isVanishing()) {
+            this.plugin.hooksVanish(player);
+        }
+        this.plugin.hooksJoin(player);
         final StringBuilder statusUpdate = new StringBuilder();
-        if (VanishPerms.joinVanished(event.getPlayer())) {
+        if (context.joinVanished) {
             String message = ChatColor.DARK_AQUA + "You have joined vanished.";
-            if (VanishPerms.canVanish(event.getPlayer())) {
+            if (VanishPerms.canVanish(player)) {
                 message += " To appear: /vanish";
             }
-            event.getPlayer().sendMessage(message);
+            player.sendMessage(message);
+            statusUpdate.append("vanished");
+        } else if (context.preVanished) {
+            player.sendMessage(ChatColor.DARK_AQUA + "You were marked to join vanished.");
+            statusUpdate.append("vanished");
+        } else if (context.restored) {
+            player.sendMessage(ChatColor.DARK_AQUA + "You are still vanished from before the restart.");
             statusUpdate.append("vanished");
         }
-        if (VanishPerms.joinWithoutAnnounce(event.getPlayer())) {
-            this.plugin.getManager().getAnnounceManipulator().addToDelayedAnnounce(event.getPlayer().getName());
-            event.setJoinMessage(null);
+        if (silent) {
             if (statusUpdate.length() != 0) {
                 statusUpdate.append(" and ");
             }
             statusUpdate.append("silently");
         }
         if (statusUpdate.length() != 0) {
-            this.plugin.messageStatusUpdate(ChatColor.DARK_AQUA + event.getPlayer().getName() + " has joined " + statusUpdate.toString());
+            this.plugin.messageStatusUpdate(ChatColor.DARK_AQUA + player.getName() + " has joined " + statusUpdate.toString());
         }
-        if (VanishPerms.canReceiveAdminAlerts(event.getPlayer()) && this.plugin.versionDifference()) {
-            event.getPlayer().sendMessage(ChatColor.AQUA + "[Vanish] This is version " + ChatColor.DARK_AQUA + this.plugin.getCurrentVersion() + ChatColor.AQUA + ", latest is " + ChatColor.DARK_AQUA + this.plugin.getLatestKnownVersion());
-            event.getPlayer().sendMessage(ChatColor.AQUA + "Visit " + ChatColor.DARK_AQUA + "http://www.curse.com/server-mods/minecraft/vanish");
+        if (VanishPerms.canReceiveAdminAlerts(player) && this.plugin.versionDifference()) {
+            player.sendMessage(ChatColor.AQUA + "[Vanish] This is version " + ChatColor.DARK_AQUA + this.plugin.getCurrentVersion() + ChatColor.AQUA + ", latest is " + ChatColor.DARK_AQUA + this.plugin.getLatestKnownVersion());
+            player.sendMessage(ChatColor.AQUA + "Visit " + ChatColor.DARK_AQUA + "http://www.curse.com/server-mods/minecraft/vanish");
         }
     }
-}
\ No newline at end of file
+}
@@ -9,6 +9,7 @@ import org.bukkit.event.player.AsyncPlayerChatEvent;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.kitteh.vanish.Settings;
 import org.kitteh.vanish.VanishPerms;
+import org.kitteh.vanish.VanishPlayerState;
 import org.kitteh.vanish.VanishPlugin;
 
 public final class ListenPlayerMessages implements Listener {
@@ -20,15 +21,22 @@ public final class ListenPlayerMessages implements Listener {
 
     @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
     public void onPlayerChat(AsyncPlayerChatEvent event) {
-        if (this.plugin.getManager().isVanished(event.getPlayer()) && VanishPerms.canNotChat(event.getPlayer())) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
+        final VanishPlayerState state = this.plugin.getManager().getState(event.getPlayer());
+        if ((state != null) && state.isVanished() && state.getUser().getNoChat()) {
             event.setCancelled(true);
         }
     }
 
     @EventHandler(priority = EventPriority.LOWEST)
     public void onPlayerCommandPreprocess(PlayerCommandPreprocessEvent event) {
-        if (event.getMessage().toLowerCase().startsWith("/me ") && this.plugin.getManager().isVanished(event.getPlayer()) && VanishPerms.canNotChat(event.getPlayer())) {
-            event.setCancelled(true);
+        if (event.getMessage().toLowerCase().startsWith("/me ")) {
+            final VanishPlayerState state = this.plugin.getManager().getState(event.getPlayer());
+            if ((state != null) && state.isVanished() && state.getUser().getNoChat()) {
+                event.setCancelled(true);
+            }
         }
         if (Settings.getEnablePermTest()) {
             final String[] split = event.getMessage().split(" ");
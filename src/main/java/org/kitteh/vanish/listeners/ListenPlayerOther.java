@@ -18,17 +18,14 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.entity.FoodLevelChangeEvent;
 import org.bukkit.event.player.PlayerBucketFillEvent;
-import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerDropItemEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerPickupItemEvent;
-import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerShearEntityEvent;
 import org.bukkit.inventory.Inventory;
-import org.kitteh.vanish.Settings;
 import org.kitteh.vanish.VanishPerms;
+import org.kitteh.vanish.VanishPlayerState;
 import org.kitteh.vanish.VanishPlugin;
-import org.kitteh.vanish.metrics.MetricsOverlord;
 
 public final class ListenPlayerOther implements Listener {
     private final VanishPlugin plugin;
@@ -39,23 +36,35 @@ public final class ListenPlayerOther implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onBucketFill(PlayerBucketFillEvent event) {
-        if (this.plugin.getManager().isVanished(event.getPlayer()) && VanishPerms.canNotInteract(event.getPlayer())) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
+        final VanishPlayerState state = this.plugin.getManager().getState(event.getPlayer());
+        if ((state != null) && state.isVanished() && state.getUser().getNoInteract()) {
             event.setCancelled(true);
         }
     }
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onDrop(PlayerDropItemEvent event) {
-        if (this.plugin.getManager().isVanished(event.getPlayer()) && VanishPerms.canNotInteract(event.getPlayer())) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
+        final VanishPlayerState state = this.plugin.getManager().getState(event.getPlayer());
+        if ((state != null) && state.isVanished() && state.getUser().getNoInteract()) {
             event.setCancelled(true);
         }
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onFoodChange(FoodLevelChangeEvent event) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
         if (event.getEntity() instanceof Player) {
             final Player player = (Player) event.getEntity();
-            if (this.plugin.getManager().isVanished(player) && VanishPerms.canNotHunger(player)) {
+            final VanishPlayerState state = this.plugin.getManager().getState(player);
+            if ((state != null) && state.isVanished() && state.getUser().getNoHunger()) {
                 event.setCancelled(true);
             }
         }
@@ -63,8 +72,15 @@ public final class ListenPlayerOther implements Listener {
 
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onPlayerInteract(PlayerInteractEvent event) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
         final Player player = event.getPlayer();
-        if (!this.plugin.chestFakeInUse(player.getName()) && !player.isSneaking() && (event.getAction() == Action.RIGHT_CLICK_BLOCK) && this.plugin.getManager().isVanished(event.getPlayer()) && VanishPerms.canReadChestsSilently(event.getPlayer())) {
+        final VanishPlayerState state = this.plugin.getManager().getState(player);
+        if ((state == null) || !state.isVanished()) {
+            return;
+        }
+        if (!state.isFakeChestOpen() && !player.isSneaking() && (event.getAction() == Action.RIGHT_CLICK_BLOCK) && state.getUser().getReadChestsSilently()) {
             final Block block = event.getClickedBlock();
             Inventory inventory = null;
             final BlockState blockState = block.getState();
@@ -78,7 +94,7 @@ public final class ListenPlayerOther implements Listener {
                     fake = true;
                     break;
                 case ENDER_CHEST:
-                    if (this.plugin.getServer().getPluginManager().isPluginEnabled("EnderChestPlus") && VanishPerms.canNotInteract(player)) {
+                    if (this.plugin.getServer().getPluginManager().isPluginEnabled("EnderChestPlus") && state.getUser().getNoInteract()) {
                         event.setCancelled(true);
                         return;
                     }
@@ -106,19 +122,19 @@ public final class ListenPlayerOther implements Listener {
             if (inventory != null) {
                 event.setCancelled(true);
                 if (fake) {
-                    this.plugin.chestFakeOpen(player.getName());
+                    this.plugin.chestFakeOpen(player);
                     player.sendMessage(ChatColor.AQUA + "[VNP] Opening chest silently. Can not edit.");
                 }
                 player.openInventory(inventory);
                 return;
             }
         }
-        if (this.plugin.getManager().isVanished(player) && VanishPerms.canNotInteract(player)) {
+        if (state.getUser().getNoInteract()) {
             event.setCancelled(true);
             return;
         }
         if ((event.getAction() == Action.PHYSICAL) && (event.getClickedBlock().getType() == Material.SOIL)) {
-            if (this.plugin.getManager().isVanished(player) && VanishPerms.canNotTrample(player)) {
+            if (VanishPerms.canNotTrample(player)) {
                 event.setCancelled(true);
             }
         }
@@ -126,38 +142,23 @@ public final class ListenPlayerOther implements Listener {
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onPlayerPickupItem(PlayerPickupItemEvent event) {
-        if (this.plugin.getManager().isVanished(event.getPlayer()) && VanishPerms.canNotPickUp(event.getPlayer())) {
-            event.setCancelled(true);
-        }
-    }
-
-    @EventHandler
-    public void onPlayerQuit(PlayerQuitEvent event) {
-        final Player player = event.getPlayer();
-        if (this.plugin.getManager().isVanished(player)) {
-            this.plugin.messageStatusUpdate(ChatColor.DARK_AQUA + event.getPlayer().getName() + " has quit vanished");
+        if (this.plugin.getManager().isIdle()) {
+            return;
         }
-        this.plugin.getManager().playerQuit(player);
-        this.plugin.hooksQuit(player);
-        this.plugin.getManager().getAnnounceManipulator().dropDelayedAnnounce(player.getName());
-        if (!this.plugin.getManager().getAnnounceManipulator().playerHasQuit(player.getName()) || VanishPerms.silentQuit(player)) {
-            MetricsOverlord.getQuitInvisTracker().increment();
-            event.setQuitMessage(null);
+        final VanishPlayerState state = this.plugin.getManager().getState(event.getPlayer());
+        if ((state != null) && state.isVanished() && state.getUser().getNoPickup()) {
+            event.setCancelled(true);
         }
-        this.plugin.chestFakeClose(event.getPlayer().getName());
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onShear(PlayerShearEntityEvent event) {
-        if (this.plugin.getManager().isVanished(event.getPlayer()) && VanishPerms.canNotInteract(event.getPlayer())) {
-            event.setCancelled(true);
+        if (this.plugin.getManager().isIdle()) {
+            return;
         }
-    }
-
-    @EventHandler(priority = EventPriority.MONITOR)
-    public void onWorldChange(PlayerChangedWorldEvent event) {
-        if (Settings.getWorldChangeCheck()) {
-            this.plugin.getManager().playerRefresh(event.getPlayer());
+        final VanishPlayerState state = this.plugin.getManager().getState(event.getPlayer());
+        if ((state != null) && state.isVanished() && state.getUser().getNoInteract()) {
+            event.setCancelled(true);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package org.kitteh.vanish.listeners;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.kitteh.vanish.VanishPlugin;
+
+public final class ListenPlayerPreLogin implements Listener {
+    private final VanishPlugin plugin;
+
+    public ListenPlayerPreLogin(VanishPlugin instance) {
+        this.plugin = instance;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            this.plugin.getManager().prefetchUser(event.getName());
+            this.plugin.getManager().playerPreLogin(event.getName());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        if (event.getResult() == PlayerLoginEvent.Result.ALLOWED) {
+            this.plugin.getManager().playerLogin(event.getPlayer());
+        } else {
+            this.plugin.getManager().playerLoginDenied(event.getPlayer());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.kitteh.vanish.listeners;
+
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.kitteh.vanish.Settings;
+import org.kitteh.vanish.VanishPerms;
+import org.kitteh.vanish.VanishPlugin;
+import org.kitteh.vanish.metrics.MetricsOverlord;
+
+public final class ListenPlayerState implements Listener {
+    private final VanishPlugin plugin;
+
+    public ListenPlayerState(VanishPlugin instance) {
+        this.plugin = instance;
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        final Player player = event.getPlayer();
+        final boolean vanished = this.plugin.getManager().isVanished(player);
+        final boolean fakeOnline = this.plugin.getManager().getAnnounceManipulator().playerHasQuit(player);
+        final boolean silentQuit = VanishPerms.silentQuit(player);
+        this.plugin.getManager().playerQuit(player);
+        this.plugin.getManager().defer(new Runnable() {
+            @Override
+            public void run() {
+                if (vanished) {
+                    ListenPlayerState.this.plugin.messageStatusUpdate(ChatColor.DARK_AQUA + player.getName() + " has quit vanished");
+                }
+                ListenPlayerState.this.plugin.hooksQuit(player);
+            }
+        });
+        if (!fakeOnline || silentQuit) {
+            MetricsOverlord.getQuitInvisTracker().increment();
+            event.setQuitMessage(null);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChange(PlayerChangedWorldEvent event) {
+        this.plugin.getManager().invalidatePermissions(event.getPlayer());
+        if (Settings.getWorldChangeCheck()) {
+            this.plugin.getManager().playerRefresh(event.getPlayer());
+        }
+    }
+}
@@ -6,7 +6,7 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.hanging.HangingBreakByEntityEvent;
 import org.bukkit.event.hanging.HangingBreakEvent;
-import org.kitteh.vanish.VanishPerms;
+import org.kitteh.vanish.VanishPlayerState;
 import org.kitteh.vanish.VanishPlugin;
 
 public final class ListenToYourHeart implements Listener {
@@ -18,11 +18,15 @@ public final class ListenToYourHeart implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void badReview(HangingBreakEvent criticism) {
+        if (this.plugin.getManager().isIdle()) {
+            return;
+        }
         if (criticism instanceof HangingBreakByEntityEvent) {
             final Entity critic = ((HangingBreakByEntityEvent) criticism).getRemover();
             if (critic instanceof Player) {
                 final Player arrogantFool = (Player) critic;
-                if (this.plugin.getManager().isVanished(arrogantFool) && VanishPerms.canNotInteract(arrogantFool)) {
+                final VanishPlayerState state = this.plugin.getManager().getState(arrogantFool);
+                if ((state != null) && state.isVanished() && state.getUser().getNoInteract()) {
                     criticism.setCancelled(true);
                 }
             }
@@ -134,7 +134,7 @@ public final class VanishNoPacket {
             throw new VanishNotLoadedException();
         }
         if (!safe && !VanishNoPacket.mainThread.equals(Thread.currentThread())) {
-            throw new RuntimeException("Cannot toggle visibility asynchronously");
+            throw new RuntimeException("Cannot toggle visibility asynchronously, use VanishManager.toggleVanishAsync");
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package org.kitteh.vanish;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import org.bukkit.entity.Entity;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatFlocksTest {
+    private static final class FakeBat implements InvocationHandler {
+        private final UUID id = UUID.randomUUID();
+        private boolean valid = true;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getUniqueId")) {
+                return this.id;
+            }
+            if (method.getName().equals("isValid")) {
+                return this.valid;
+            }
+            if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            return null;
+        }
+
+        private Entity entity() {
+            return (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(), new Class<?>[] { Entity.class }, this);
+        }
+    }
+
+    @Test
+    public void removeOnlyTouchesFlock() {
+        final BatFlocks flocks = new BatFlocks();
+        final BatFlocks.Flock first = flocks.create();
+        final BatFlocks.Flock second = flocks.create();
+        final Entity[] removed = { new FakeBat().entity(), new FakeBat().entity() };
+        final Entity kept = new FakeBat().entity();
+        flocks.add(first, removed[0]);
+        flocks.add(first, removed[1]);
+        flocks.add(second, kept);
+        Assert.assertEquals(3, flocks.size());
+        Assert.assertEquals(2, flocks.remove(first).size());
+        Assert.assertFalse(flocks.getIds().contains(removed[0].getUniqueId()));
+        Assert.assertEquals(1, flocks.size());
+        Assert.assertTrue(flocks.getIds().contains(kept.getUniqueId()));
+    }
+
+    @Test
+    public void sweepForgetsUnloadedBats() {
+        final BatFlocks flocks = new BatFlocks();
+        final BatFlocks.Flock flock = flocks.create();
+        final FakeBat unloaded = new FakeBat();
+        final Entity unloadedEntity = unloaded.entity();
+        final Entity loaded = new FakeBat().entity();
+        flocks.add(flock, unloadedEntity);
+        flocks.add(flock, loaded);
+        unloaded.valid = false;
+        Assert.assertEquals(1, flocks.sweep());
+        Assert.assertFalse(flocks.getIds().contains(unloadedEntity.getUniqueId()));
+        Assert.assertEquals(0, flocks.sweep());
+        Assert.assertEquals(loaded, flocks.remove(flock).get(0));
+        Assert.assertEquals(0, flocks.size());
+    }
+}
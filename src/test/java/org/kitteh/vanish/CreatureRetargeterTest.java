@@ -0,0 +1,23 @@
+package org.kitteh.vanish;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CreatureRetargeterTest {
+    @Test
+    public void offsetsCoverRadiusNearestFirst() {
+        final int[] offsets = CreatureRetargeter.offsets();
+        final int side = (CreatureRetargeter.RADIUS * 2) + 1;
+        Assert.assertEquals(side * side * 2, offsets.length);
+        Assert.assertEquals(0, offsets[0]);
+        Assert.assertEquals(0, offsets[1]);
+        int last = 0;
+        for (int i = 0; i < offsets.length; i += 2) {
+            Assert.assertTrue(Math.abs(offsets[i]) <= CreatureRetargeter.RADIUS);
+            Assert.assertTrue(Math.abs(offsets[i + 1]) <= CreatureRetargeter.RADIUS);
+            final int distance = (offsets[i] * offsets[i]) + (offsets[i + 1] * offsets[i + 1]);
+            Assert.assertTrue(distance >= last);
+            last = distance;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.kitteh.vanish;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EffectSchedulerTest {
+    private static final class Recorder implements EffectScheduler.Step {
+        private final List<Integer> runs = new ArrayList<Integer>();
+
+        @Override
+        public void run(int index) {
+            this.runs.add(index);
+        }
+    }
+
+    @Test
+    public void spreadsOverTicks() {
+        final EffectScheduler scheduler = new EffectScheduler();
+        final Recorder recorder = new Recorder();
+        scheduler.add(30, 10, recorder);
+        scheduler.tick(100);
+        Assert.assertEquals(3, recorder.runs.size());
+        for (int i = 0; i < 9; i++) {
+            scheduler.tick(100);
+        }
+        Assert.assertEquals(30, recorder.runs.size());
+        Assert.assertEquals(0, scheduler.size());
+        Assert.assertEquals(0, scheduler.getDropped());
+    }
+
+    @Test
+    public void budgetThinsInsteadOfDelaying() {
+        final EffectScheduler scheduler = new EffectScheduler();
+        final Recorder first = new Recorder();
+        final Recorder second = new Recorder();
+        scheduler.add(10, 2, first);
+        scheduler.add(10, 2, second);
+        scheduler.tick(7);
+        Assert.assertEquals(5, first.runs.size());
+        Assert.assertEquals(2, second.runs.size());
+        scheduler.tick(7);
+        Assert.assertEquals(10, first.runs.size());
+        Assert.assertEquals(4, second.runs.size());
+        Assert.assertEquals(0, scheduler.size());
+        Assert.assertEquals(6, scheduler.getDropped());
+    }
+}
@@ -0,0 +1,56 @@
+package org.kitteh.vanish;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.entity.FoodLevelChangeEvent;
+import org.kitteh.vanish.listeners.ListenPlayerOther;
+
+/**
+ * Times a protection handler for a visible player, with the idle gate
+ * open and closed. Not a unit test, run it by hand:
+ * java -cp target/classes:target/test-classes:... org.kitteh.vanish.FastPathBenchmark
+ */
+public final class FastPathBenchmark {
+    private static final int EVENTS = 2000000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        final UUID id = UUID.randomUUID();
+        final Player player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] { Player.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getUniqueId") ? id : null;
+            }
+        });
+        final FoodLevelChangeEvent event = new FoodLevelChangeEvent(player, 20);
+        final ListenPlayerOther idle = new ListenPlayerOther(ListenerFixture.plugin(true));
+        final ListenPlayerOther busy = new ListenPlayerOther(ListenerFixture.plugin(false));
+
+        long idleNanos = Long.MAX_VALUE;
+        long busyNanos = Long.MAX_VALUE;
+        for (int round = 0; round < FastPathBenchmark.ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < FastPathBenchmark.EVENTS; i++) {
+                idle.onFoodChange(event);
+            }
+            idleNanos = Math.min(idleNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < FastPathBenchmark.EVENTS; i++) {
+                busy.onFoodChange(event);
+            }
+            busyNanos = Math.min(busyNanos, System.nanoTime() - start);
+        }
+        if (event.isCancelled()) {
+            throw new IllegalStateException("A visible player's event was cancelled");
+        }
+        System.out.println("onFoodChange, " + FastPathBenchmark.EVENTS + " events: idle " + (idleNanos / 1000) + "us, not idle " + (busyNanos / 1000) + "us");
+    }
+
+    private FastPathBenchmark() {
+    }
+}
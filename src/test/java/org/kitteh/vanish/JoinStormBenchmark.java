@@ -0,0 +1,88 @@
+package org.kitteh.vanish;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replays a burst of joins, such as after a proxy restart, through the
+ * visibility matrix. Compares resynchronizing every joiner on its own with
+ * the single batched pass joins get on the following tick. Not a unit test,
+ * run it by hand:
+ * java -cp target/classes:target/test-classes:... org.kitteh.vanish.JoinStormBenchmark
+ */
+public final class JoinStormBenchmark {
+    private static final class Counter implements VisibilityMatrix.Applier<String> {
+        private int hides = 0;
+        private int shows = 0;
+
+        @Override
+        public void hide(String viewer, String target) {
+            this.hides++;
+        }
+
+        @Override
+        public void refresh(String viewer, String target) {
+        }
+
+        @Override
+        public void show(String viewer, String target) {
+            this.shows++;
+        }
+    }
+
+    private static final int ONLINE = 100;
+    private static final int VANISHED = 10;
+    private static final int JOINS = 500;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        long singleNanos = Long.MAX_VALUE;
+        long batchNanos = Long.MAX_VALUE;
+        for (int round = 0; round < JoinStormBenchmark.ROUNDS; round++) {
+            final Counter single = new Counter();
+            final VisibilityMatrix<String> singleMatrix = JoinStormBenchmark.populate(single);
+            long start = System.nanoTime();
+            for (int i = 0; i < JoinStormBenchmark.JOINS; i++) {
+                final String player = "joiner" + i;
+                singleMatrix.add(player, false, single);
+                singleMatrix.setSeeAll(player, JoinStormBenchmark.canSeeAll(i), single);
+            }
+            singleNanos = Math.min(singleNanos, System.nanoTime() - start);
+
+            final Counter batch = new Counter();
+            final VisibilityMatrix<String> batchMatrix = JoinStormBenchmark.populate(batch);
+            start = System.nanoTime();
+            final Map<String, Boolean> joined = new LinkedHashMap<String, Boolean>();
+            for (int i = 0; i < JoinStormBenchmark.JOINS; i++) {
+                final String player = "joiner" + i;
+                batchMatrix.add(player, false, batch);
+                joined.put(player, JoinStormBenchmark.canSeeAll(i));
+            }
+            batchMatrix.setSeeAll(joined, batch);
+            batchNanos = Math.min(batchNanos, System.nanoTime() - start);
+
+            if ((single.hides != batch.hides) || (single.shows != batch.shows)) {
+                throw new IllegalStateException("Batched joins made different calls");
+            }
+        }
+        System.out.println("Join storm, " + JoinStormBenchmark.JOINS + " joins: per join " + (singleNanos / 1000) + "us, batched " + (batchNanos / 1000) + "us");
+    }
+
+    private static boolean canSeeAll(int joiner) {
+        return (joiner % 50) == 0;
+    }
+
+    private static VisibilityMatrix<String> populate(Counter counter) {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        for (int i = 0; i < JoinStormBenchmark.ONLINE; i++) {
+            matrix.add("online" + i, false, counter);
+        }
+        for (int i = 0; i < JoinStormBenchmark.VANISHED; i++) {
+            matrix.setVanished("online" + i, true, false, counter);
+        }
+        return matrix;
+    }
+
+    private JoinStormBenchmark() {
+    }
+}
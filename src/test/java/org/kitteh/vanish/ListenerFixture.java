@@ -0,0 +1,35 @@
+package org.kitteh.vanish;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds a plugin and manager just far enough to drive listeners, without
+ * a server behind them. Nothing else is initialized.
+ */
+final class ListenerFixture {
+    static VanishPlugin plugin(boolean idle) throws Exception {
+        final VanishManager manager = ListenerFixture.allocate(VanishManager.class);
+        ListenerFixture.set(manager, "idle", idle);
+        ListenerFixture.set(manager, "states", new ConcurrentHashMap<Object, Object>());
+        final VanishPlugin plugin = ListenerFixture.allocate(VanishPlugin.class);
+        ListenerFixture.set(plugin, "manager", manager);
+        return plugin;
+    }
+
+    private static <T> T allocate(Class<T> clazz) throws Exception {
+        final Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+        field.setAccessible(true);
+        final Object unsafe = field.get(null);
+        return clazz.cast(unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, clazz));
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private ListenerFixture() {
+    }
+}
@@ -0,0 +1,87 @@
+package org.kitteh.vanish;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PendingTogglesTest {
+    private static final class Recorder implements VisibilityMatrix.Applier<String> {
+        private final List<String> calls = new ArrayList<String>();
+
+        @Override
+        public void hide(String viewer, String target) {
+            this.calls.add("hide " + viewer + " " + target);
+        }
+
+        @Override
+        public void refresh(String viewer, String target) {
+            this.calls.add("refresh " + viewer + " " + target);
+        }
+
+        @Override
+        public void show(String viewer, String target) {
+            this.calls.add("show " + viewer + " " + target);
+        }
+    }
+
+    @Test
+    public void cancellingTogglesReachNothing() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        final PendingToggles<String> pending = new PendingToggles<String>();
+        pending.add("a", true, true, true);
+        pending.add("a", false, false, true);
+        final Map<String, PendingToggles.Toggle> settled = pending.settle();
+        // Events, hooks, effects and messages all follow from the settled toggles
+        Assert.assertTrue(settled.isEmpty());
+        Assert.assertTrue(pending.isEmpty());
+        final Map<String, Boolean> changes = new LinkedHashMap<String, Boolean>();
+        for (final Map.Entry<String, PendingToggles.Toggle> entry : settled.entrySet()) {
+            changes.put(entry.getKey(), entry.getValue().isVanished());
+        }
+        matrix.setVanished(changes, recorder);
+        Assert.assertTrue(recorder.calls.isEmpty());
+    }
+
+    @Test
+    public void netChangeKeepsFlags() {
+        final PendingToggles<String> pending = new PendingToggles<String>();
+        pending.add("a", true, false, false);
+        pending.add("a", false, true, false);
+        pending.add("a", true, false, true);
+        final PendingToggles.Toggle toggle = pending.settle().get("a");
+        Assert.assertTrue(toggle.isVanished());
+        Assert.assertTrue(toggle.hasEffects());
+        Assert.assertTrue(toggle.isAnnounced());
+    }
+
+    @Test
+    public void settlingSomeLeavesTheRest() {
+        final PendingToggles<String> pending = new PendingToggles<String>();
+        pending.add("a", true, false, false);
+        pending.add("b", false, false, false);
+        Assert.assertEquals(Collections.singleton("b"), pending.settle(Collections.singleton("b")).keySet());
+        Assert.assertFalse(pending.contains("b"));
+        Assert.assertTrue(pending.contains("a"));
+    }
+
+    @Test
+    public void settlingAllButSomeLeavesThose() {
+        final PendingToggles<String> pending = new PendingToggles<String>();
+        pending.add("a", true, false, false);
+        pending.add("b", false, false, false);
+        pending.add("c", true, false, false);
+        Assert.assertEquals(Collections.singleton("b"), pending.settleExcept(Arrays.asList("a", "c")).keySet());
+        Assert.assertFalse(pending.contains("b"));
+        Assert.assertTrue(pending.contains("a"));
+        Assert.assertTrue(pending.contains("c"));
+    }
+}
@@ -0,0 +1,32 @@
+package org.kitteh.vanish;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PreVanishIndexTest {
+    @Test
+    public void staysSortedAndPersists() throws IOException {
+        final File file = File.createTempFile("prevanish", ".dat");
+        file.delete();
+        final PreVanishIndex index = new PreVanishIndex(file);
+        Assert.assertTrue(index.add("Notch"));
+        Assert.assertTrue(index.add("mbaxter"));
+        Assert.assertTrue(index.add("jeb_"));
+        Assert.assertFalse(index.add("NOTCH"));
+        Assert.assertTrue(index.remove("jeb_"));
+        Assert.assertFalse(index.remove("jeb_"));
+        Assert.assertArrayEquals(new String[] { "mbaxter", "notch" }, index.getNames());
+        index.save();
+
+        final PreVanishIndex loaded = new PreVanishIndex(file);
+        loaded.load();
+        Assert.assertTrue(loaded.contains("MBaxter"));
+        Assert.assertTrue(loaded.contains("notch"));
+        Assert.assertFalse(loaded.contains("jeb_"));
+        Assert.assertEquals(2, loaded.size());
+        file.delete();
+    }
+}
@@ -0,0 +1,60 @@
+package org.kitteh.vanish;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.vanish.listeners.ListenEntity;
+import org.kitteh.vanish.listeners.ListenPlayerOther;
+import org.kitteh.vanish.listeners.ListenToYourHeart;
+
+/**
+ * Handlers are given a null event, so any handler that reads its event
+ * past the idle check fails.
+ */
+public class ProtectionGateTest {
+    @Test
+    public void idleHandlersReturnEarly() throws Exception {
+        final VanishPlugin plugin = ListenerFixture.plugin(true);
+        for (final Listener listener : new Listener[] { new ListenEntity(plugin), new ListenPlayerOther(plugin), new ListenToYourHeart(plugin) }) {
+            for (final Method handler : ProtectionGateTest.handlers(listener)) {
+                try {
+                    handler.invoke(listener, (Object) null);
+                } catch (final InvocationTargetException e) {
+                    Assert.fail(handler.getName() + " read its event while idle: " + e.getCause());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void busyHandlersReadEvent() throws Exception {
+        final VanishPlugin plugin = ListenerFixture.plugin(false);
+        for (final Listener listener : new Listener[] { new ListenEntity(plugin), new ListenPlayerOther(plugin) }) {
+            for (final Method handler : ProtectionGateTest.handlers(listener)) {
+                try {
+                    handler.invoke(listener, (Object) null);
+                    Assert.fail(handler.getName() + " never read its event");
+                } catch (final InvocationTargetException e) {
+                    Assert.assertTrue(e.getCause() instanceof NullPointerException);
+                }
+            }
+        }
+    }
+
+    private static List<Method> handlers(Listener listener) {
+        final List<Method> handlers = new ArrayList<Method>();
+        for (final Method method : listener.getClass().getMethods()) {
+            if (method.isAnnotationPresent(EventHandler.class)) {
+                handlers.add(method);
+            }
+        }
+        Assert.assertFalse(handlers.isEmpty());
+        return handlers;
+    }
+}
@@ -0,0 +1,39 @@
+package org.kitteh.vanish;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void burstThenRefill() {
+        final TokenBucket bucket = new TokenBucket();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(bucket.tryTake(2, 3, 0));
+        }
+        Assert.assertFalse(bucket.tryTake(2, 3, 0));
+        Assert.assertFalse(bucket.tryTake(2, 3, TokenBucketTest.SECOND / 4));
+        Assert.assertTrue(bucket.tryTake(2, 3, TokenBucketTest.SECOND / 2));
+        Assert.assertFalse(bucket.tryTake(2, 3, TokenBucketTest.SECOND / 2));
+    }
+
+    @Test
+    public void refillCapsAtBurst() {
+        final TokenBucket bucket = new TokenBucket();
+        Assert.assertTrue(bucket.tryTake(1, 2, 0));
+        int taken = 0;
+        while (bucket.tryTake(1, 2, 100 * TokenBucketTest.SECOND)) {
+            taken++;
+        }
+        Assert.assertEquals(2, taken);
+    }
+
+    @Test
+    public void zeroRateIsUnlimited() {
+        final TokenBucket bucket = new TokenBucket();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(bucket.tryTake(0, 1, 0));
+        }
+    }
+}
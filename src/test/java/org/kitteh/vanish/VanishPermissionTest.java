@@ -0,0 +1,22 @@
+package org.kitteh.vanish;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VanishPermissionTest {
+    @Test
+    public void fitsInMask() {
+        Assert.assertTrue("Too many permissions for a long mask", VanishPermission.values().length <= 64);
+    }
+
+    @Test
+    public void nodesAreUnique() {
+        final Set<String> nodes = new HashSet<String>();
+        for (final VanishPermission permission : VanishPermission.values()) {
+            Assert.assertTrue("Duplicate node " + permission.getNode(), nodes.add(permission.getNode()));
+        }
+    }
+}
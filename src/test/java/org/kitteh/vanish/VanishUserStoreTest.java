@@ -0,0 +1,132 @@
+package org.kitteh.vanish;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VanishUserStoreTest {
+    private static VanishUserStore load(File file) {
+        final VanishUserStore store = new VanishUserStore(file, Logger.getLogger("VanishUserStoreTest"));
+        store.load();
+        return store;
+    }
+
+    @Test
+    public void compactsStaleRecords() throws IOException {
+        final File file = File.createTempFile("users", ".dat");
+        file.delete();
+        final VanishUserStore store = VanishUserStoreTest.load(file);
+        for (int i = 0; i < 100; i++) {
+            store.put("mbaxter", 1, i & 1);
+            store.flush();
+        }
+        final long before = file.length();
+        final VanishUserStore reloaded = VanishUserStoreTest.load(file);
+        Assert.assertEquals(1, reloaded.get("mbaxter").getValues());
+        Assert.assertTrue(file.length() < before);
+        Assert.assertFalse(new File(file.getParentFile(), file.getName() + ".tmp").exists());
+        Assert.assertEquals(1, VanishUserStoreTest.load(file).get("mbaxter").getValues());
+        file.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final File file = File.createTempFile("users", ".dat");
+        file.delete();
+        final VanishUserStore store = VanishUserStoreTest.load(file);
+        Assert.assertTrue(store.isLoaded());
+        store.put("mbaxter", 5, 4);
+        store.put("Notch", 2, 2);
+        store.put("Notch", 3, 1);
+        store.put("jeb_", 1, 1);
+        store.flush();
+        store.put("jeb_", 0, 0);
+        store.flush();
+
+        final VanishUserStore reloaded = VanishUserStoreTest.load(file);
+        Assert.assertEquals(5, reloaded.get("MBAXTER").getMask());
+        Assert.assertEquals(4, reloaded.get("mbaxter").getValues());
+        Assert.assertEquals(3, reloaded.get("notch").getMask());
+        Assert.assertEquals(1, reloaded.get("notch").getValues());
+        Assert.assertNull(reloaded.get("jeb_"));
+        file.delete();
+    }
+
+    @Test
+    public void failedFlushRetries() throws IOException {
+        final File file = File.createTempFile("users", ".dat");
+        file.delete();
+        final VanishUserStore store = VanishUserStoreTest.load(file);
+        // A directory in the way fails the write
+        file.mkdir();
+        store.put("mbaxter", 1, 1);
+        store.put("Notch", 2, 2);
+        store.flush();
+        file.delete();
+        // Newer than the failed write, so it must win
+        store.put("mbaxter", 1, 0);
+        store.flush();
+
+        final VanishUserStore reloaded = VanishUserStoreTest.load(file);
+        Assert.assertEquals(0, reloaded.get("mbaxter").getValues());
+        Assert.assertEquals(2, reloaded.get("notch").getValues());
+        file.delete();
+    }
+
+    @Test
+    public void readsUnframedLog() throws IOException {
+        final File file = File.createTempFile("users", ".dat");
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x564e5055);
+        out.writeByte(1);
+        out.writeUTF("mbaxter");
+        out.writeLong(5);
+        out.writeLong(4);
+        out.close();
+
+        Assert.assertEquals(4, VanishUserStoreTest.load(file).get("mbaxter").getValues());
+        // Rewritten framed, so appends after it read back
+        final VanishUserStore store = VanishUserStoreTest.load(file);
+        store.put("Notch", 3, 1);
+        store.flush();
+        final VanishUserStore reloaded = VanishUserStoreTest.load(file);
+        Assert.assertEquals(4, reloaded.get("mbaxter").getValues());
+        Assert.assertEquals(1, reloaded.get("notch").getValues());
+        file.delete();
+    }
+
+    @Test
+    public void tearMidLogKeepsEarlierRecords() throws IOException {
+        final File file = File.createTempFile("users", ".dat");
+        file.delete();
+        final VanishUserStore store = VanishUserStoreTest.load(file);
+        store.put("mbaxter", 5, 4);
+        store.flush();
+        final long first = file.length();
+        store.put("Notch", 3, 1);
+        store.flush();
+        store.put("jeb_", 1, 1);
+        store.flush();
+        // Damage the second record's payload
+        final RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(first + 6);
+        raw.writeByte(raw.readByte() ^ 0xff);
+        raw.close();
+
+        final VanishUserStore reloaded = VanishUserStoreTest.load(file);
+        Assert.assertEquals(4, reloaded.get("mbaxter").getValues());
+        Assert.assertNull(reloaded.get("notch"));
+        reloaded.put("Notch", 3, 1);
+        reloaded.flush();
+        final VanishUserStore again = VanishUserStoreTest.load(file);
+        Assert.assertEquals(4, again.get("mbaxter").getValues());
+        Assert.assertEquals(1, again.get("notch").getValues());
+        file.delete();
+    }
+}
@@ -0,0 +1,59 @@
+package org.kitteh.vanish;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bukkit.entity.Player;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VanishUserTest {
+    private final Set<String> nodes = new HashSet<String>();
+    private final Player player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] { Player.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("hasPermission") && (args[0] instanceof String)) {
+                return VanishUserTest.this.nodes.contains(args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    @Test
+    public void lostGrantDropsToggle() {
+        this.nodes.add(VanishPermission.See.getNode());
+        final VanishUser user = new VanishUser(this.player);
+        Assert.assertFalse(user.toggleSeeAll());
+        this.nodes.clear();
+        Assert.assertTrue(user.recalculate());
+        Assert.assertFalse(user.getSeeAll());
+        this.nodes.add(VanishPermission.See.getNode());
+        user.recalculate();
+        Assert.assertTrue(user.getSeeAll());
+    }
+
+    @Test
+    public void storedToggleDroppedAfterGrantChanged() {
+        final VanishUser user = new VanishUser(this.player);
+        // Toggled off while granted, then demoted while offline
+        user.setOverrides(VanishPermission.See.getMask(), 0);
+        Assert.assertEquals(0, user.getOverrideMask());
+        this.nodes.add(VanishPermission.See.getNode());
+        user.recalculate();
+        Assert.assertTrue(user.getSeeAll());
+    }
+
+    @Test
+    public void toggleKeptAcrossRecalculation() {
+        this.nodes.add(VanishPermission.NoPickup.getNode());
+        final VanishUser user = new VanishUser(this.player);
+        Assert.assertFalse(user.toggleNoPickup());
+        Assert.assertFalse(user.recalculate());
+        Assert.assertFalse(user.getNoPickup());
+        Assert.assertTrue(user.toggleNoPickup());
+        Assert.assertEquals(0, user.getOverrideMask());
+    }
+}
@@ -0,0 +1,208 @@
+package org.kitteh.vanish;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VisibilityMatrixTest {
+    private static final class Recorder implements VisibilityMatrix.Applier<String> {
+        private final List<String> calls = new ArrayList<String>();
+
+        @Override
+        public void hide(String viewer, String target) {
+            this.calls.add("hide " + viewer + " " + target);
+        }
+
+        @Override
+        public void refresh(String viewer, String target) {
+            this.calls.add("refresh " + viewer + " " + target);
+        }
+
+        @Override
+        public void show(String viewer, String target) {
+            this.calls.add("show " + viewer + " " + target);
+        }
+    }
+
+    @Test
+    public void joinHidesOnlyVanished() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        matrix.setVanished("a", true, false, recorder);
+        recorder.calls.clear();
+        matrix.add("c", false, recorder);
+        matrix.add("d", true, recorder);
+        Assert.assertEquals(1, recorder.calls.size());
+        Assert.assertEquals("hide c a", recorder.calls.get(0));
+    }
+
+    @Test
+    public void quitShowsOnlyToHidingViewers() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        matrix.add("c", true, recorder);
+        matrix.setVanished("a", true, false, recorder);
+        recorder.calls.clear();
+        matrix.remove("a", recorder);
+        Assert.assertEquals(1, recorder.calls.size());
+        Assert.assertEquals("show b a", recorder.calls.get(0));
+        Assert.assertFalse(matrix.contains("a"));
+        Assert.assertEquals(2, matrix.size());
+    }
+
+    @Test
+    public void repeatedToggleOnlyDiffs() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        matrix.add("c", true, recorder);
+        Assert.assertTrue(matrix.setVanished("a", true, false, recorder));
+        Assert.assertFalse(matrix.setVanished("a", true, false, recorder));
+        Assert.assertEquals(2, recorder.calls.size());
+        Assert.assertTrue(recorder.calls.contains("hide b a"));
+        Assert.assertTrue(recorder.calls.contains("refresh c a"));
+        Assert.assertTrue(matrix.isHidden("b", "a"));
+        Assert.assertFalse(matrix.isHidden("c", "a"));
+    }
+
+    @Test
+    public void seeAllChangeDiffsRow() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        matrix.add("c", false, recorder);
+        matrix.setVanished("a", true, false, recorder);
+        recorder.calls.clear();
+        matrix.setSeeAll("b", true, recorder);
+        matrix.setSeeAll("b", true, recorder);
+        Assert.assertEquals(1, recorder.calls.size());
+        Assert.assertEquals("show b a", recorder.calls.get(0));
+        matrix.setSeeAll("b", false, recorder);
+        Assert.assertEquals("hide b a", recorder.calls.get(1));
+    }
+
+    @Test
+    public void batchedJoinsMatchSingleJoins() {
+        final Recorder single = new Recorder();
+        final VisibilityMatrix<String> singleMatrix = VisibilityMatrixTest.populate(single);
+        final Recorder batch = new Recorder();
+        final VisibilityMatrix<String> batchMatrix = VisibilityMatrixTest.populate(batch);
+        final Map<String, Boolean> joined = new LinkedHashMap<String, Boolean>();
+        for (int i = 0; i < 20; i++) {
+            final boolean seeAll = (i % 5) == 0;
+            singleMatrix.add("joiner" + i, seeAll, single);
+            singleMatrix.setSeeAll("joiner" + i, seeAll, single);
+            batchMatrix.add("joiner" + i, seeAll, batch);
+            joined.put("joiner" + i, seeAll);
+        }
+        batchMatrix.setSeeAll(joined, batch);
+        Assert.assertEquals(single.calls, batch.calls);
+        Assert.assertEquals(24, batchMatrix.size());
+        Assert.assertTrue(batchMatrix.isHidden("joiner1", "a"));
+        Assert.assertFalse(batchMatrix.isHidden("joiner0", "a"));
+        Assert.assertFalse(batchMatrix.isHidden("joiner1", "c"));
+    }
+
+    @Test
+    public void batchedJoinsApplyPermissionChanges() {
+        final Recorder recorder = new Recorder();
+        final VisibilityMatrix<String> matrix = VisibilityMatrixTest.populate(recorder);
+        matrix.add("e", false, recorder);
+        matrix.add("f", true, recorder);
+        recorder.calls.clear();
+        final Map<String, Boolean> joined = new LinkedHashMap<String, Boolean>();
+        joined.put("e", true);
+        joined.put("f", false);
+        matrix.setSeeAll(joined, recorder);
+        Assert.assertEquals(4, recorder.calls.size());
+        Assert.assertTrue(recorder.calls.contains("show e a"));
+        Assert.assertTrue(recorder.calls.contains("show e b"));
+        Assert.assertTrue(recorder.calls.contains("hide f a"));
+        Assert.assertTrue(recorder.calls.contains("hide f b"));
+        Assert.assertFalse(matrix.isHidden("e", "a"));
+        Assert.assertTrue(matrix.isHidden("f", "b"));
+    }
+
+    @Test
+    public void columnsFollowViewers() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        matrix.add("c", false, recorder);
+        matrix.setVanished("a", true, false, recorder);
+        Assert.assertEquals(2, matrix.hiddenFromCount("a"));
+        matrix.remove("b", recorder);
+        matrix.setSeeAll("c", true, recorder);
+        Assert.assertEquals(0, matrix.hiddenFromCount("a"));
+        matrix.add("d", false, recorder);
+        Assert.assertEquals(1, matrix.hiddenFromCount("a"));
+        recorder.calls.clear();
+        matrix.remove("a", recorder);
+        Assert.assertEquals(1, recorder.calls.size());
+        Assert.assertEquals("show d a", recorder.calls.get(0));
+    }
+
+    @Test
+    public void bulkVanishIsOnePass() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        matrix.add("c", false, recorder);
+        matrix.add("d", true, recorder);
+        matrix.setVanished("c", true, false, recorder);
+        recorder.calls.clear();
+        final Map<String, Boolean> changes = new LinkedHashMap<String, Boolean>();
+        changes.put("a", true);
+        changes.put("b", true);
+        changes.put("c", false);
+        matrix.setVanished(changes, recorder);
+        Assert.assertEquals(9, recorder.calls.size());
+        Assert.assertTrue(recorder.calls.contains("hide a b"));
+        Assert.assertTrue(recorder.calls.contains("hide b a"));
+        Assert.assertTrue(recorder.calls.contains("hide c a"));
+        Assert.assertTrue(recorder.calls.contains("hide c b"));
+        Assert.assertTrue(recorder.calls.contains("show a c"));
+        Assert.assertTrue(recorder.calls.contains("show b c"));
+        Assert.assertTrue(recorder.calls.contains("refresh d c"));
+        Assert.assertFalse(matrix.setVanished("a", true, false, recorder));
+        Assert.assertFalse(matrix.isHidden("a", "c"));
+        Assert.assertEquals(2, matrix.hiddenFromCount("a"));
+    }
+
+    @Test
+    public void slotsAreReused() {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        final Recorder recorder = new Recorder();
+        for (int i = 0; i < 40; i++) {
+            matrix.add("p" + i, false, recorder);
+        }
+        matrix.remove("p3", recorder);
+        Assert.assertEquals(3, matrix.add("late", false, recorder));
+    }
+
+    /**
+     * Four players online, a and b vanished
+     */
+    private static VisibilityMatrix<String> populate(Recorder recorder) {
+        final VisibilityMatrix<String> matrix = new VisibilityMatrix<String>();
+        matrix.add("a", false, recorder);
+        matrix.add("b", false, recorder);
+        matrix.add("c", false, recorder);
+        matrix.add("d", false, recorder);
+        matrix.setVanished("a", true, false, recorder);
+        matrix.setVanished("b", true, false, recorder);
+        return matrix;
+    }
+}
@@ -0,0 +1,178 @@
+package org.kitteh.vanish;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VisibilitySchedulerTest {
+    private static final class Recorder implements VisibilityScheduler.Sink<String>, VisibilityScheduler.Clock {
+        private final List<String> calls = new ArrayList<String>();
+        private final Set<String> offline = new HashSet<String>();
+        private long now = 0;
+        private long step = 0;
+
+        @Override
+        public void hide(String viewer, String target) {
+            this.calls.add("hide " + viewer + " " + target);
+        }
+
+        @Override
+        public boolean isOnline(String player) {
+            return !this.offline.contains(player);
+        }
+
+        @Override
+        public long nanoTime() {
+            this.now += this.step;
+            return this.now;
+        }
+
+        @Override
+        public void show(String viewer, String target) {
+            this.calls.add("show " + viewer + " " + target);
+        }
+    }
+
+    private final Recorder recorder = new Recorder();
+    private final VisibilityScheduler<String> scheduler = new VisibilityScheduler<String>(this.recorder, this.recorder);
+
+    @Test
+    public void hidesBeforeShows() {
+        this.scheduler.show("a", "b");
+        this.scheduler.hide("a", "c");
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertEquals("hide a c", this.recorder.calls.get(0));
+        Assert.assertEquals("show a b", this.recorder.calls.get(1));
+    }
+
+    @Test
+    public void duplicatesCollapse() {
+        this.scheduler.hide("a", "b");
+        this.scheduler.hide("a", "b");
+        this.scheduler.show("a", "c");
+        this.scheduler.show("a", "c");
+        Assert.assertEquals(1, this.scheduler.getPendingHides());
+        Assert.assertEquals(1, this.scheduler.getPendingShows());
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertEquals(2, this.recorder.calls.size());
+    }
+
+    @Test
+    public void hideThenShowCancels() {
+        this.scheduler.hide("a", "b");
+        this.scheduler.show("a", "b");
+        Assert.assertEquals(0, this.scheduler.getPendingHides());
+        Assert.assertEquals(0, this.scheduler.getPendingShows());
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertTrue(this.recorder.calls.isEmpty());
+    }
+
+    @Test
+    public void showThenHideCancels() {
+        this.scheduler.show("a", "b");
+        this.scheduler.hide("a", "b");
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertTrue(this.recorder.calls.isEmpty());
+    }
+
+    @Test
+    public void staleGenerationSkipped() {
+        // The first hide's queue entry outlives it, and must not fire for the second
+        this.scheduler.hide("a", "b");
+        this.scheduler.show("a", "b");
+        this.scheduler.hide("a", "b");
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertEquals(1, this.recorder.calls.size());
+        Assert.assertEquals("hide a b", this.recorder.calls.get(0));
+        Assert.assertEquals(0, this.scheduler.getPendingHides());
+    }
+
+    @Test
+    public void operationBudgetSpills() {
+        for (int i = 0; i < 5; i++) {
+            this.scheduler.hide("a", "t" + i);
+        }
+        this.scheduler.run(2, Long.MAX_VALUE);
+        Assert.assertEquals(2, this.recorder.calls.size());
+        Assert.assertEquals(3, this.scheduler.getPendingHides());
+        // A show cancelling a spilled hide sends neither
+        this.scheduler.show("a", "t4");
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertEquals(4, this.recorder.calls.size());
+        Assert.assertFalse(this.recorder.calls.contains("hide a t4"));
+        Assert.assertFalse(this.recorder.calls.contains("show a t4"));
+    }
+
+    @Test
+    public void timeBudgetSpills() {
+        for (int i = 0; i < 5; i++) {
+            this.scheduler.hide("a", "t" + i);
+        }
+        this.recorder.step = 10;
+        this.scheduler.run(100, 25);
+        // The first always runs, then each check costs another 10ns
+        Assert.assertEquals(3, this.recorder.calls.size());
+        this.recorder.step = 0;
+        this.scheduler.run(100, 25);
+        Assert.assertEquals(5, this.recorder.calls.size());
+    }
+
+    @Test
+    public void refreshShowsAfterDelay() {
+        this.scheduler.refresh("a", "b");
+        // Queued on tick 0, so the hide goes out on tick 1 and the show on
+        // tick REFRESH_DELAY
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertEquals(1, this.recorder.calls.size());
+        for (int i = 2; i < VisibilityScheduler.REFRESH_DELAY; i++) {
+            this.scheduler.run(10, Long.MAX_VALUE);
+        }
+        Assert.assertEquals(1, this.recorder.calls.size());
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertEquals("show a b", this.recorder.calls.get(1));
+    }
+
+    @Test
+    public void offlineSkipped() {
+        this.scheduler.hide("a", "b");
+        this.scheduler.show("c", "d");
+        this.recorder.offline.add("b");
+        this.recorder.offline.add("c");
+        this.scheduler.run(10, Long.MAX_VALUE);
+        Assert.assertTrue(this.recorder.calls.isEmpty());
+        Assert.assertEquals(0, this.scheduler.getPendingShows());
+    }
+
+    @Test
+    public void flushIgnoresBudgetAndDelay() {
+        this.scheduler.refresh("a", "b");
+        this.scheduler.hide("a", "c");
+        this.scheduler.flush();
+        Assert.assertEquals(3, this.recorder.calls.size());
+        Assert.assertEquals("show a b", this.recorder.calls.get(2));
+        Assert.assertEquals(0, this.scheduler.getPendingHides());
+        Assert.assertEquals(0, this.scheduler.getPendingShows());
+    }
+
+    @Test
+    public void targetQuitShowsNowAndDropsHides() {
+        this.scheduler.refresh("a", "b");
+        this.scheduler.show("c", "b");
+        this.scheduler.hide("d", "b");
+        this.scheduler.hide("a", "e");
+        this.scheduler.targetQuit("b");
+        Assert.assertEquals(2, this.recorder.calls.size());
+        Assert.assertTrue(this.recorder.calls.contains("show a b"));
+        Assert.assertTrue(this.recorder.calls.contains("show c b"));
+        Assert.assertEquals(1, this.scheduler.getPendingHides());
+        Assert.assertEquals(0, this.scheduler.getPendingShows());
+        this.recorder.offline.add("b");
+        this.scheduler.flush();
+        Assert.assertEquals(3, this.recorder.calls.size());
+        Assert.assertEquals("hide a e", this.recorder.calls.get(2));
+    }
+}